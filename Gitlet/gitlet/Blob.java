@@ -1,37 +1,74 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
-
-import static gitlet.Utils.join;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
+/** A file snapshot, identified by the hash of its name and content.
+ *  The content itself is never held in memory: it is hashed and copied
+ *  into .gitlet through a fixed-size buffer. A blob made to be stored
+ *  reads its file once, compressing it into a temporary object file
+ *  while hashing it, so the hash always names the content stored.
+ */
 public class Blob implements Serializable {
+    /** Keeps blobs written by older versions (which serialized the
+     * whole Blob into the object file) readable. */
+    private static final long serialVersionUID = -5727648112609006564L;
+
+    /** Size of the buffer files are streamed through. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     private String name;
-    private byte[] contentByte;
-    private String contentString;
     private String hash;
 
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    /** Content of a blob read back from an object file written by an
+     * older version; null for blobs built from a file. */
+    private byte[] contentByte;
 
-    /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** Temporary object file holding the content as it was hashed, or
+     * null for a blob that is only hashed. */
+    private transient File object;
 
-    /** This initializes the blob class.
-     * @param filename name of file**/
-    public Blob(String filename) {
+    /** This initializes the blob class, ready to be written with
+     * GitUtils.writeBlob.
+     * @param ctx      the repository
+     * @param filename name of file in its working directory**/
+    Blob(RepoContext ctx, String filename) {
         name = filename;
-        File file = Utils.join(CWD, filename);
-        contentByte = Utils.readContents(file);
-        contentString = Utils.readContentsAsString(file);
-        List<Object> preHash = new ArrayList<>();
-        preHash.add(name);
-        preHash.add(contentByte);
-        preHash.add(contentString);
-        hash = Utils.sha1(preHash);
-
+        File source = Utils.join(ctx.cwd, filename);
+        if (!source.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        MessageDigest md = sha1();
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        object = LooseObject.compress(ctx.blobs, LooseObject.BLOB, source, md::update);
+        boolean hashed = false;
+        try (ReadableByteChannel in = Channels.newChannel(LooseObject.open(object))) {
+            digestReencoded(md, in);
+            hashed = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (!hashed) {
+                object.delete();
+            }
+        }
+        hash = toHex(md.digest());
     }
 
     /** This initializes the blob class.
@@ -39,15 +76,12 @@ public class Blob implements Serializable {
      * @param location location of file **/
 
     public Blob(String filename, String location) {
+        this(filename, new File(location));
+    }
+
+    private Blob(String filename, File location) {
         name = filename;
-        File file = Utils.join(location, filename);
-        contentByte = Utils.readContents(file);
-        contentString = Utils.readContentsAsString(file);
-        List<Object> preHash = new ArrayList<>();
-        preHash.add(name);
-        preHash.add(contentByte);
-        preHash.add(contentString);
-        hash = Utils.sha1(preHash);
+        hash = hashFile(name, Utils.join(location, filename));
     }
 
     public String getName() {
@@ -58,12 +92,114 @@ public class Blob implements Serializable {
         return hash;
     }
 
-    public String getContentString() {
-        return contentString;
+    /** Content of a legacy blob read back from .gitlet. */
+    byte[] getContentByte() {
+        return contentByte;
     }
 
-    public byte[] getContentByte() {
-        return contentByte;
+    /** The temporary object file holding the content as it was hashed,
+     * or null for a blob that is only hashed. */
+    File getObject() {
+        return object;
+    }
+
+    /** Drop the temporary object file of a blob that is not written. */
+    void discard() {
+        if (object != null) {
+            object.delete();
+        }
+    }
+
+    /**
+     * Hash NAME and the content of FILE the same way the blob hash has
+     * always been defined: SHA-1 over the name, the raw bytes, and the
+     * bytes re-encoded from their UTF-8 decoding. The file is read twice
+     * through a fixed-size buffer instead of being loaded whole.
+     */
+    private static String hashFile(String name, File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        MessageDigest md = sha1();
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            digestReencoded(md, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Feed MD the UTF-8 encoding of the content read from CHANNEL decoded
+     *  as UTF-8, i.e. what new String(bytes, UTF_8).getBytes(UTF_8) would
+     *  give. */
+    private static void digestReencoded(MessageDigest md,
+                                        ReadableByteChannel channel) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+        boolean end = false;
+        while (!end) {
+            end = channel.read(in) < 0;
+            in.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(in, chars, end);
+                encode(encoder, chars, out, md, false);
+            } while (result.isOverflow());
+            in.compact();
+        }
+        decoder.flush(chars);
+        encode(encoder, chars, out, md, true);
+        encoder.flush(out);
+        out.flip();
+        md.update(out);
+    }
+
+    /** Encode the pending CHARS into MD through OUT, leaving an unpaired
+     *  trailing surrogate for the next call unless this is the END. */
+    private static void encode(CharsetEncoder encoder, CharBuffer chars,
+                               ByteBuffer out, MessageDigest md, boolean end) {
+        chars.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, out, end);
+            out.flip();
+            md.update(out);
+            out.clear();
+        } while (result.isOverflow());
+        chars.compact();
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
     }
 
 }
@@ -0,0 +1,137 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/** Reachability bitmaps of the branch heads: for each head, the set of
+ *  commit-graph positions reachable from it, so that asking whether a
+ *  commit is an ancestor of a branch is a single bit test.
+ *  .gitlet/refs/bitmaps/HASH holds the bitmap of the commit HASH: a
+ *  header (magic, version), the raw hash of the commit and the compressed
+ *  bitmap. What a commit reaches never changes, so a bitmap is found from
+ *  the head of a branch by name alone, and the bitmap of a new commit is
+ *  that of its parents plus itself. The bitmap of the parent is dropped
+ *  once its branch has moved past it; one that is missing, as after a
+ *  reset or for a branch that shared that head, is computed from the
+ *  commit graph the next time it is needed.
+ *  Earlier builds named the files after the branches; such a file is
+ *  deleted when the bitmap of its branch is first computed.
+ */
+class BranchBitmaps {
+
+    /** "GBMP", the first four bytes of a bitmap file. */
+    private static final int MAGIC = 0x47424d50;
+
+    /** Version of the bitmap format. */
+    private static final int VERSION = 2;
+
+    /** Size of the header and the head hash. */
+    private static final int HEADER_SIZE = 8 + RawHash.BYTES;
+
+    /**
+     * Whether the commit HASH is reachable from the head of BRANCH
+     * @param ctx    the repository
+     * @param branch name of the branch
+     * @param hash   hash of the commit
+     */
+    static boolean contains(RepoContext ctx, String branch, String hash) {
+        int pos = CommitGraph.position(ctx, hash);
+        String head = GitUtils.getBranchHead(ctx, branch);
+        EwahBitmap bitmap = read(ctx, head);
+        if (bitmap == null) {
+            Utils.join(ctx.bitmaps, branch).delete();
+            bitmap = EwahBitmap.of(CommitGraph.reachable(ctx, CommitGraph.position(ctx, head)));
+            write(ctx, head, bitmap);
+        }
+        return bitmap.get(pos);
+    }
+
+    /**
+     * Store the bitmap of a commit just made, which its branch now
+     * points to, in place of that of its first parent
+     * @param ctx    the repository
+     * @param commit the new head of the branch
+     */
+    static void update(RepoContext ctx, Commit commit) {
+        BitSet bits = new BitSet();
+        if (commit.getParent() != null) {
+            bits.or(reachable(ctx, commit.getParent()));
+        }
+        if (commit.getMergeParent() != null) {
+            bits.or(reachable(ctx, commit.getMergeParent()));
+        }
+        bits.set(CommitGraph.position(ctx, commit.getHash()));
+        write(ctx, commit.getHash(), EwahBitmap.of(bits));
+        if (commit.getParent() != null) {
+            remove(ctx, commit.getParent());
+        }
+    }
+
+    /**
+     * Forget the bitmap of a commit, such as the head of a removed branch
+     * @param ctx  the repository
+     * @param head hash of the commit
+     */
+    static void remove(RepoContext ctx, String head) {
+        Utils.join(ctx.bitmaps, head).delete();
+    }
+
+    /**
+     * Forget all bitmaps, as when the commit graph is rebuilt and its
+     * positions change
+     */
+    static void clear(RepoContext ctx) {
+        File[] files = ctx.bitmaps.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Return the positions reachable from the commit HASH, taken from
+     *  its bitmap when there is one. */
+    private static BitSet reachable(RepoContext ctx, String hash) {
+        EwahBitmap bitmap = read(ctx, hash);
+        if (bitmap != null) {
+            return bitmap.toBitSet();
+        }
+        return CommitGraph.reachable(ctx, CommitGraph.position(ctx, hash));
+    }
+
+    /** Return the stored bitmap of the commit HEAD, or null. */
+    private static EwahBitmap read(RepoContext ctx, String head) {
+        File file = Utils.join(ctx.bitmaps, head);
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        if (in.limit() < HEADER_SIZE || in.getInt(0) != MAGIC
+                || in.getInt(4) != VERSION || RawHash.compare(in, 8, head) != 0) {
+            return null;
+        }
+        in.position(HEADER_SIZE);
+        return EwahBitmap.readFrom(in);
+    }
+
+    private static void write(RepoContext ctx, String head, EwahBitmap bitmap) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 4 + bitmap.byteSize());
+        out.putInt(MAGIC).putInt(VERSION);
+        RawHash.put(out, head);
+        bitmap.writeTo(out);
+        ctx.bitmaps.mkdirs();
+        File file = Utils.join(ctx.bitmaps, head);
+        try {
+            File tmp = File.createTempFile("tmp-", null, ctx.bitmaps);
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
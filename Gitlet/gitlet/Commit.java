@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -10,6 +11,12 @@ import java.util.*;
  * @author Anna (Yutong) Zhang
  */
 public class Commit implements Serializable {
+    /** Fixed so that commits written by earlier builds stay readable. */
+    private static final long serialVersionUID = -7213736153036931234L;
+
+    /** How the time of a commit is written. */
+    private static final String TIME_FORMAT = "EEE MMM d HH:mm:ss y Z";
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -26,10 +33,17 @@ public class Commit implements Serializable {
     private boolean merge;
 
     /** All the file blobs corresponding to this commit
-     * (identified by their hashes)
+     * (identified by their hashes). Only commits made before trees
+     * existed have it; newer ones have a tree instead.
      * */
     private HashMap<String, String> contents;
 
+    /** Hash of the root tree of this commit, or null for older commits */
+    private String tree;
+
+    /** Files of this commit by path, flattened from its tree when needed */
+    private transient volatile HashMap<String, String> files;
+
     /** The message of this Commit. */
     private String message;
 
@@ -51,7 +65,7 @@ public class Commit implements Serializable {
     /** Constructor EXCLUSIVELY for the initial commit */
     public Commit() {
         parent = null;
-        contents = new HashMap<>();
+        tree = Tree.EMPTY;
         message = "initial commit";
         branch = "master";
 
@@ -59,8 +73,7 @@ public class Commit implements Serializable {
         mergeParent = null;
 
         Date date = new Date(0);
-        String pattern = "EEE MMM d HH:mm:ss y Z";
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+        SimpleDateFormat dateFormat = new SimpleDateFormat(TIME_FORMAT);
         time = dateFormat.format(date);
 
         hash = hashVal();
@@ -69,13 +82,13 @@ public class Commit implements Serializable {
 
     /** Create a normal commit
      * @param message the message for the commit
-     * @param files the contents
+     * @param tree hash of the root tree
      * @param parent the parent of the commit
      * @param branch the branch it belongs to*/
-    public Commit(String message, HashMap<String, String> files, String parent,
+    public Commit(String message, String tree, String parent,
                   String branch) {
         this.message = message;
-        this.contents = files;
+        this.tree = tree;
         this.parent = parent;
         this.branch = branch;
 
@@ -89,17 +102,17 @@ public class Commit implements Serializable {
 
 
     /** Create a merge commit
-     * @param files
+     * @param tree
      * @param parent1
      * @param parent2
      * @param branch1
      * @param branch2
      */
-    public Commit(HashMap<String, String> files,
+    public Commit(String tree,
                   String parent1, String parent2,
                   String branch1, String branch2) {
         this.message = "Merged " + branch2 + " into " + branch1 + ".";
-        this.contents = files;
+        this.tree = tree;
         this.parent = parent1;
         this.mergeParent = parent2;
         this.merge = true;
@@ -111,8 +124,7 @@ public class Commit implements Serializable {
 
     public String createTime() {
         Date date = new Date();
-        String pattern = "EEE MMM d HH:mm:ss y Z";
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+        SimpleDateFormat dateFormat = new SimpleDateFormat(TIME_FORMAT);
 
         return dateFormat.format(date);
     }
@@ -136,6 +148,10 @@ public class Commit implements Serializable {
         if (merge) {
             tmp.add(mergeParent);
         }
+        if (contents == null) {
+            tmp.add(tree);
+            return Utils.sha1(tmp);
+        }
         for (String blob : contents.values()) {
             tmp.add(blob);
         }
@@ -143,13 +159,55 @@ public class Commit implements Serializable {
         return Utils.sha1(tmp);
     }
 
-    public List<String> getBlob() {
-        List<String> lst = new ArrayList<String>(contents.values());
+    List<String> getBlob(RepoContext ctx) {
+        List<String> lst = new ArrayList<String>(getContents(ctx).values());
         return lst;
     }
 
-    public HashMap<String, String> getContents() {
-        return contents;
+    /** Return every file of this commit by path. This reads the whole
+     * tree; prefer blobOf or Tree.diff when only some paths matter. */
+    HashMap<String, String> getContents(RepoContext ctx) {
+        if (contents != null) {
+            return contents;
+        }
+        if (files == null) {
+            files = Tree.flatten(ctx, tree);
+        }
+        return files;
+    }
+
+    /** Return the files of this commit among the given paths */
+    HashMap<String, String> getContents(RepoContext ctx, Collection<String> paths) {
+        HashMap<String, String> result = new HashMap<>();
+        for (String path : paths) {
+            String blob = blobOf(ctx, path);
+            if (blob != null) {
+                result.put(path, blob);
+            }
+        }
+        return result;
+    }
+
+    /** Return the blob hash of a file in this commit, or null */
+    String blobOf(RepoContext ctx, String path) {
+        if (contents != null) {
+            return contents.get(path);
+        }
+        return Tree.lookup(ctx, tree, path);
+    }
+
+    /** Return the hash of the root tree of this commit. Commits made
+     * before trees existed get one built from their contents. */
+    String getTree(RepoContext ctx) {
+        if (tree == null) {
+            tree = Tree.update(ctx, null, contents);
+        }
+        return tree;
+    }
+
+    /** Number of file entries stored in this commit object itself */
+    int entryCount() {
+        return contents == null ? 0 : contents.size();
     }
 
     public String getParent() {
@@ -168,72 +226,17 @@ public class Commit implements Serializable {
         return time;
     }
 
-    public String getMessage() {
-        return message;
-    }
-
-    public static HashSet<String> getAncestors(String commitHash) {
-
-        Deque<String> queue = new ArrayDeque<>();
-        queue.addLast(commitHash);
-        HashSet<String> res = new HashSet<>();
-
-        while (!queue.isEmpty()) {
-            String hash = queue.poll();
-            res.add(hash);
-            Commit commit = GitUtils.getCommit(hash);
-
-            if (commit.getParent() != null) {
-                queue.addLast(commit.getParent());
-            }
-            if (commit.getMergeParent() != null) {
-                queue.addLast(commit.getMergeParent());
-            }
-
+    /** Return the time of the commit in milliseconds since the epoch. */
+    long getTimestamp() {
+        try {
+            return new SimpleDateFormat(TIME_FORMAT).parse(time).getTime();
+        } catch (ParseException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-
-        return res;
     }
 
-    public static String lowestCommonAncestor(String curCommit, HashSet<String> otherAncestors) {
-        TreeMap<Integer, String> ancestors = new TreeMap<>();
-        Deque<String> queue = new ArrayDeque<>();
-        int level = 0;
-
-        queue.addLast(curCommit);
-
-        // Kind of like a BFS???
-        while (!queue.isEmpty()) {
-
-            // The size of a given level
-            int levelCount = queue.size();
-
-            for (int i = 0; i < levelCount; i++) {
-                String hash = queue.poll();
-                Commit commit = GitUtils.getCommit(hash);
-
-                if (commit.getParent() != null) {
-                    String p1 = commit.getParent();
-                    queue.addLast(p1);
-                    if (otherAncestors.contains(p1)) {
-                        ancestors.put(level, p1);
-                    }
-                }
-
-                if (commit.getMergeParent() != null) {
-                    String p2 = commit.getMergeParent();
-                    queue.addLast(p2);
-                    if (otherAncestors.contains(p2)) {
-                        ancestors.put(level, p2);
-                    }
-                }
-            }
-
-            level++;
-
-        }
-        return ancestors.firstEntry().getValue();
-
+    public String getMessage() {
+        return message;
     }
 
 }
@@ -0,0 +1,452 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/** A persistent graph of all commits, so that ancestry questions are
+ *  answered without deserializing a single commit.
+ *  .gitlet/commitGraph holds a header (magic, version, number of commits
+ *  in the lookup table), a fanout table of 256 cumulative counts (entry B
+ *  is the number of table entries whose hash starts with a byte at most
+ *  B), the lookup table of raw hashes and positions sorted by hash, then
+ *  one fixed-size record per commit: its raw hash, the positions of its
+ *  two parents (or NONE) and its generation number, which is one more
+ *  than the largest generation of its parents. Records are appended as
+ *  commits are made, so parents always come before their children and a
+ *  commit is identified by its position in the file. The commits appended
+ *  since the table was written are searched one by one; once there are
+ *  more than TAIL_LIMIT of them the file is rewritten with all of them in
+ *  the table, so finding the position of a hash costs a binary search
+ *  within its fanout bucket.
+ *  A commit can only reach commits of a lower generation, which lets the
+ *  walks below stop as soon as they go past the commits they look for.
+ *  Version 1 graphs, which had no table, are converted when first read.
+ */
+class CommitGraph {
+
+    /** "GCGR", the first four bytes of the graph. */
+    private static final int MAGIC = 0x47434752;
+
+    /** Version of the graph format. */
+    private static final int VERSION = 2;
+
+    /** Number of entries in the fanout table. */
+    private static final int FANOUT = 256;
+
+    /** Offset of the fanout table. */
+    private static final int FANOUT_AT = 12;
+
+    /** Offset of the lookup table. */
+    private static final int TABLE_AT = FANOUT_AT + 4 * FANOUT;
+
+    /** Size of an entry of the lookup table: hash and position. */
+    private static final int ENTRY_SIZE = RawHash.BYTES + 4;
+
+    /** Size of a record: hash, two parents and a generation. */
+    private static final int RECORD_SIZE = RawHash.BYTES + 12;
+
+    /** Largest number of commits kept out of the lookup table. */
+    private static final int TAIL_LIMIT = 64;
+
+    /** Size of the header of a version 1 graph. */
+    private static final int V1_HEADER_SIZE = 8;
+
+    /** Parent position of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** Flags of the merge base walk. */
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    /**
+     * Record a new commit in the graph. Its parents must already be
+     * recorded; if they are not, the whole graph is rebuilt.
+     * @param ctx    the repository
+     * @param commit the commit
+     */
+    static void add(RepoContext ctx, Commit commit) {
+        if (!ctx.commitGraph.exists()) {
+            rebuild(ctx);
+            return;
+        }
+        if (positionOf(ctx, commit.getHash()) != NONE) {
+            return;
+        }
+        int p1 = commit.getParent() == null ? NONE : positionOf(ctx, commit.getParent());
+        int p2 = commit.getMergeParent() == null
+                ? NONE : positionOf(ctx, commit.getMergeParent());
+        if ((commit.getParent() != null && p1 == NONE)
+                || (commit.getMergeParent() != null && p2 == NONE)) {
+            rebuild(ctx);
+            return;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        RawHash.put(record, commit.getHash());
+        record.putInt(p1).putInt(p2)
+                .putInt(1 + Math.max(generationOf(ctx, p1), generationOf(ctx, p2)));
+        record.flip();
+
+        ByteBuffer buf = map(ctx);
+        if (count(buf) - sorted(buf) >= TAIL_LIMIT) {
+            ByteBuffer records = ByteBuffer.allocate(count(buf) * RECORD_SIZE + RECORD_SIZE);
+            records.put(buf.duplicate().position(recordAt(buf, 0))).put(record);
+            store(ctx, records.array());
+            unmap(ctx);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(ctx.commitGraph.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unmap(ctx);
+    }
+
+    /**
+     * Return a latest common ancestor of two commits: one that is an
+     * ancestor of both and not an ancestor of any other such commit.
+     * If there are several, the one of the highest generation is chosen.
+     * @param ctx    the repository
+     * @param first  hash of one commit
+     * @param second hash of the other
+     */
+    static String mergeBase(RepoContext ctx, String first, String second) {
+        int a = position(ctx, first);
+        int b = position(ctx, second);
+        if (a == b) {
+            return first;
+        }
+
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generationOf(ctx, y), generationOf(ctx, x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+        flags.put(a, PARENT1);
+        flags.put(b, PARENT2);
+        queue.add(a);
+        queue.add(b);
+
+        List<Integer> results = new ArrayList<>();
+        while (hasNonStale(queue, flags)) {
+            int pos = queue.poll();
+            int flag = flags.get(pos) & (PARENT1 | PARENT2 | STALE);
+            if (flag == (PARENT1 | PARENT2)) {
+                if ((flags.get(pos) & RESULT) == 0) {
+                    flags.put(pos, flags.get(pos) | RESULT);
+                    results.add(pos);
+                }
+                flag |= STALE;
+            }
+            for (int parent : parentsOf(ctx, pos)) {
+                int old = flags.getOrDefault(parent, 0);
+                if ((old & flag) != flag) {
+                    flags.put(parent, old | flag);
+                    queue.add(parent);
+                }
+            }
+        }
+
+        // A result that is an ancestor of another result is not a latest one.
+        for (int candidate : results) {
+            boolean redundant = false;
+            for (int other : results) {
+                if (other != candidate && reaches(ctx, other, candidate)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                return hashOf(ctx, candidate);
+            }
+        }
+        throw Utils.error("Commits %s and %s have no common ancestor.", first, second);
+    }
+
+    /**
+     * Rewrite the graph from the list of all commits
+     */
+    static void rebuild(RepoContext ctx) {
+        HashMap<String, Integer> positions = new HashMap<>();
+        List<Commit> order = new ArrayList<>();
+        Deque<String> stack = new ArrayDeque<>();
+        // Depth first, so that every commit is placed after its parents.
+        for (String start : new TreeSet<>(GitUtils.getCommits(ctx))) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String hash = stack.peek();
+                if (positions.containsKey(hash)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = GitUtils.getCommit(ctx, hash);
+                boolean ready = true;
+                for (String parent : new String[] {commit.getParent(), commit.getMergeParent()}) {
+                    if (parent != null && !positions.containsKey(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    positions.put(hash, order.size());
+                    order.add(commit);
+                }
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(order.size() * RECORD_SIZE);
+        int[] generations = new int[order.size()];
+        for (int i = 0; i < order.size(); i++) {
+            Commit commit = order.get(i);
+            int p1 = commit.getParent() == null ? NONE : positions.get(commit.getParent());
+            int p2 = commit.getMergeParent() == null
+                    ? NONE : positions.get(commit.getMergeParent());
+            generations[i] = 1 + Math.max(p1 == NONE ? 0 : generations[p1],
+                    p2 == NONE ? 0 : generations[p2]);
+            RawHash.put(out, commit.getHash());
+            out.putInt(p1).putInt(p2).putInt(generations[i]);
+        }
+
+        store(ctx, out.array());
+        unmap(ctx);
+        BranchBitmaps.clear(ctx);
+    }
+
+    /** Write a graph holding RECORDS, all of them in the lookup table. */
+    private static void store(RepoContext ctx, byte[] records) {
+        int n = records.length / RECORD_SIZE;
+        Integer[] byHash = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byHash[i] = i;
+        }
+        Arrays.sort(byHash, (x, y) -> Arrays.compareUnsigned(
+                records, x * RECORD_SIZE, x * RECORD_SIZE + RawHash.BYTES,
+                records, y * RECORD_SIZE, y * RECORD_SIZE + RawHash.BYTES));
+
+        ByteBuffer out = ByteBuffer.allocate(TABLE_AT + n * ENTRY_SIZE + records.length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n);
+        int[] fanout = new int[FANOUT];
+        for (int i = 0; i < n; i++) {
+            fanout[records[i * RECORD_SIZE] & 0xff]++;
+        }
+        int total = 0;
+        for (int b = 0; b < FANOUT; b++) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (int pos : byHash) {
+            out.put(records, pos * RECORD_SIZE, RawHash.BYTES).putInt(pos);
+        }
+        out.put(records);
+
+        File file = ctx.commitGraph;
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the positions of all commits reachable from the one at POS,
+     * including itself
+     * @param ctx the repository
+     * @param pos position of the commit
+     */
+    static BitSet reachable(RepoContext ctx, int pos) {
+        BitSet seen = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(pos);
+        seen.set(pos);
+        while (!stack.isEmpty()) {
+            for (int parent : parentsOf(ctx, stack.pop())) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Whether the commit at position TARGET is reachable from the one
+     *  at FROM. Commits of a generation not above TARGET's cannot lead to
+     *  it, so the walk never goes below that generation. */
+    private static boolean reaches(RepoContext ctx, int from, int target) {
+        int floor = generationOf(ctx, target);
+        BitSet seen = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(from);
+        seen.set(from);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == target) {
+                return true;
+            }
+            for (int parent : parentsOf(ctx, pos)) {
+                if (!seen.get(parent) && generationOf(ctx, parent) >= floor) {
+                    seen.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasNonStale(PriorityQueue<Integer> queue,
+                                       HashMap<Integer, Integer> flags) {
+        for (int pos : queue) {
+            if ((flags.get(pos) & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the position of a commit in the graph, rebuilding the graph
+     * once if it is not there, as in repositories made before the graph
+     * existed
+     * @param ctx  the repository
+     * @param hash hash of the commit
+     */
+    static int position(RepoContext ctx, String hash) {
+        if (!ctx.commitGraph.exists()) {
+            rebuild(ctx);
+        }
+        int pos = positionOf(ctx, hash);
+        if (pos == NONE) {
+            rebuild(ctx);
+            pos = positionOf(ctx, hash);
+        }
+        if (pos == NONE) {
+            throw Utils.error("Commit %s is not in the commit graph.", hash);
+        }
+        return pos;
+    }
+
+    /** Return the position of HASH, or NONE, found by a binary search
+     *  of the lookup table within its fanout bucket, then among the
+     *  commits appended since the table was written. */
+    private static int positionOf(RepoContext ctx, String hash) {
+        ByteBuffer buf = map(ctx);
+        int first = Character.digit(hash.charAt(0), 16) * 16
+                + Character.digit(hash.charAt(1), 16);
+        int lo = first == 0 ? 0 : buf.getInt(FANOUT_AT + 4 * (first - 1));
+        int hi = buf.getInt(FANOUT_AT + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = RawHash.compare(buf, TABLE_AT + mid * ENTRY_SIZE, hash);
+            if (cmp == 0) {
+                return buf.getInt(TABLE_AT + mid * ENTRY_SIZE + RawHash.BYTES);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = count(buf) - 1; i >= sorted(buf); i--) {
+            if (RawHash.compare(buf, recordAt(buf, i), hash) == 0) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private static String hashOf(RepoContext ctx, int pos) {
+        ByteBuffer buf = map(ctx);
+        return RawHash.toHex(buf, recordAt(buf, pos));
+    }
+
+    private static int[] parentsOf(RepoContext ctx, int pos) {
+        ByteBuffer buf = map(ctx);
+        int p1 = buf.getInt(recordAt(buf, pos) + RawHash.BYTES);
+        int p2 = buf.getInt(recordAt(buf, pos) + RawHash.BYTES + 4);
+        if (p1 == NONE) {
+            return new int[0];
+        }
+        return p2 == NONE ? new int[] {p1} : new int[] {p1, p2};
+    }
+
+    private static int generationOf(RepoContext ctx, int pos) {
+        if (pos == NONE) {
+            return 0;
+        }
+        ByteBuffer buf = map(ctx);
+        return buf.getInt(recordAt(buf, pos) + RawHash.BYTES + 8);
+    }
+
+    /** Return the number of commits in the lookup table of BUF. */
+    private static int sorted(ByteBuffer buf) {
+        return buf.getInt(8);
+    }
+
+    private static int recordAt(ByteBuffer buf, int pos) {
+        return TABLE_AT + sorted(buf) * ENTRY_SIZE + pos * RECORD_SIZE;
+    }
+
+    private static int count(ByteBuffer buf) {
+        return (buf.limit() - recordAt(buf, 0)) / RECORD_SIZE;
+    }
+
+    private static ByteBuffer map(RepoContext ctx) {
+        synchronized (ctx) {
+            if (ctx.graph == null) {
+                ctx.graph = load(ctx);
+            }
+            return ctx.graph;
+        }
+    }
+
+    /** Forget the mapped graph of CTX after the file changed. */
+    private static void unmap(RepoContext ctx) {
+        synchronized (ctx) {
+            ctx.graph = null;
+        }
+    }
+
+    private static ByteBuffer load(RepoContext ctx) {
+        try (FileChannel in = FileChannel.open(ctx.commitGraph.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buf.limit() >= V1_HEADER_SIZE && buf.getInt(0) == MAGIC
+                    && buf.getInt(4) == 1) {
+                byte[] records = new byte[buf.limit() - V1_HEADER_SIZE];
+                buf.get(V1_HEADER_SIZE, records);
+                store(ctx, records);
+                return load(ctx);
+            }
+            if (buf.limit() < TABLE_AT || buf.getInt(0) != MAGIC
+                    || buf.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit graph.");
+            }
+            return buf;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
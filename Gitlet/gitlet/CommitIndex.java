@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A persistent index of the hashes of all commits, used to resolve
+ *  abbreviated commit ids in logarithmic time.
+ *  .gitlet/commitIndex holds a header (magic, version, number of sorted
+ *  entries), the sorted raw hashes, then a short unsorted tail of the
+ *  hashes added since. New commits are appended to the tail; once it
+ *  grows past TAIL_LIMIT the whole file is rewritten sorted.
+ */
+class CommitIndex {
+
+    /** "GCIX", the first four bytes of the index. */
+    private static final int MAGIC = 0x47434958;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 12;
+
+    /** Size of a raw SHA-1 hash. */
+    private static final int HASH_BYTES = RawHash.BYTES;
+
+    /** Largest number of unsorted entries kept at the end of the file. */
+    private static final int TAIL_LIMIT = 64;
+
+    /**
+     * Record a new commit in the index
+     * @param ctx  the repository
+     * @param hash hash of the commit
+     */
+    static void add(RepoContext ctx, String hash) {
+        File file = ctx.commitIndex;
+        if (!file.exists()) {
+            rebuild(ctx);
+            return;
+        }
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer entry = ByteBuffer.allocate(HASH_BYTES);
+            RawHash.put(entry, hash);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                out.write(entry);
+            }
+            long tail = (out.size() - HEADER_SIZE) / HASH_BYTES - sortedCount(file);
+            if (tail <= TAIL_LIMIT) {
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        write(ctx, all(ctx));
+    }
+
+    /**
+     * Return up to LIMIT full hashes of the commits whose hash starts
+     * with ID, in sorted order
+     * @param ctx   the repository
+     * @param id    a full commit hash or a prefix of one
+     * @param limit most hashes needed; 2 is enough to tell a unique
+     *              prefix from an ambiguous one
+     */
+    static List<String> find(RepoContext ctx, String id, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        if (!RawHash.isPrefix(id)) {
+            return new ArrayList<>(found);
+        }
+        if (!ctx.commitIndex.exists()) {
+            rebuild(ctx);
+        }
+
+        ByteBuffer index = map(ctx);
+        int sorted = index.getInt(8);
+        int total = (index.limit() - HEADER_SIZE) / HASH_BYTES;
+
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(index, mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < sorted && found.size() < limit
+                && compareAt(index, i, id) == 0; i++) {
+            found.add(hashAt(index, i));
+        }
+        for (int i = sorted; i < total; i++) {
+            if (compareAt(index, i, id) == 0) {
+                found.add(hashAt(index, i));
+            }
+        }
+
+        List<String> result = new ArrayList<>(found);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /**
+     * Rewrite the index from the list of all commits
+     */
+    static void rebuild(RepoContext ctx) {
+        write(ctx, GitUtils.getCommits(ctx));
+    }
+
+    /** Return every hash in the index. */
+    private static List<String> all(RepoContext ctx) {
+        ByteBuffer index = map(ctx);
+        int total = (index.limit() - HEADER_SIZE) / HASH_BYTES;
+        List<String> result = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            result.add(hashAt(index, i));
+        }
+        return result;
+    }
+
+    /** Write an index holding exactly HASHES, all sorted. */
+    private static void write(RepoContext ctx, Collection<String> hashes) {
+        String[] sorted = new TreeSet<>(hashes).toArray(new String[0]);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + sorted.length * HASH_BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putInt(sorted.length);
+        for (String hash : sorted) {
+            RawHash.put(out, hash);
+        }
+        File file = ctx.commitIndex;
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            Files.write(tmp.toPath(), out.array());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static ByteBuffer map(RepoContext ctx) {
+        try (FileChannel in = FileChannel.open(ctx.commitIndex.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer index = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (index.limit() < HEADER_SIZE || index.getInt(0) != MAGIC
+                    || index.getInt(4) != VERSION) {
+                throw Utils.error("Corrupt commit index.");
+            }
+            return index;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static int sortedCount(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                continue;
+            }
+            return header.getInt(8);
+        }
+    }
+
+    /** Compare the hash at position I with the hexadecimal KEY, over
+     *  as many hexadecimal digits as KEY has. */
+    private static int compareAt(ByteBuffer index, int i, String key) {
+        return RawHash.compare(index, HEADER_SIZE + i * HASH_BYTES, key);
+    }
+
+    private static String hashAt(ByteBuffer index, int i) {
+        return RawHash.toHex(index, HEADER_SIZE + i * HASH_BYTES);
+    }
+}
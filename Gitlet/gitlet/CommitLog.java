@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** An append-only log of every commit in the order they were made, so
+ *  that global-log and find read one file from start to end instead of
+ *  every commit object, and making a commit no longer rewrites the set
+ *  of all commits.
+ *  .gitlet/commitLog holds a header (magic, version) followed by one
+ *  record per commit: the length of the rest of the record, the raw hash
+ *  of the commit, its number of parents and their raw hashes, the time
+ *  it was made in milliseconds since the epoch, then its time as log
+ *  shows it and its message, each as a length and UTF-8 bytes.
+ *  A commit is appended by a partial write of the journal at the end of
+ *  the file, so it is undone with the rest of its command if that fails.
+ *  Repositories made before the log existed only have the serialized set
+ *  of hashes in commitList. It is read instead, its commits sorted by
+ *  time, until the next commit writes the log and deletes it.
+ */
+class CommitLog {
+
+    /** "GCLG", the first four bytes of the log. */
+    private static final int MAGIC = 0x47434c47;
+
+    /** Version of the log format. */
+    private static final int VERSION = 1;
+
+    /**
+     * Start an empty log, in a repository being initialized
+     */
+    static void create(RepoContext ctx) {
+        ctx.journal.write(ctx.commitLog, header());
+    }
+
+    /**
+     * Record a new commit at the end of the log
+     * @param ctx    the repository
+     * @param commit the commit
+     */
+    static void append(RepoContext ctx, Commit commit) {
+        File file = ctx.commitLog;
+        long end = ctx.journal.length(file);
+        if (end > 0) {
+            ctx.journal.patch(file, end, record(commit));
+            return;
+        }
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        log.writeBytes(header());
+        for (Commit old : legacy(ctx)) {
+            log.writeBytes(record(old));
+        }
+        log.writeBytes(record(commit));
+        ctx.journal.write(file, log.toByteArray());
+        if (ctx.commitList.exists()) {
+            ctx.state.delete(ctx.commitList);
+        }
+    }
+
+    /**
+     * Pass every commit to VISITOR, oldest first, until it returns false.
+     * Commits appended by the open transaction are not included.
+     * @param ctx     the repository
+     * @param visitor given each commit; returns false to stop
+     */
+    static void scan(RepoContext ctx, Predicate<LogEntry> visitor) {
+        File file = ctx.commitLog;
+        byte[] pending = ctx.journal.pending(file);
+        if (pending == null && !file.exists()) {
+            for (Commit commit : legacy(ctx)) {
+                if (!visitor.test(new LogEntry(commit))) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(open(file, pending))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt commit log.");
+            }
+            byte[] record = new byte[0];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException excp) {
+                    return;
+                }
+                if (record.length < length) {
+                    record = new byte[length];
+                }
+                in.readFully(record, 0, length);
+                if (!visitor.test(entry(ByteBuffer.wrap(record, 0, length)))) {
+                    return;
+                }
+            }
+        } catch (EOFException excp) {
+            throw Utils.error("Corrupt commit log.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the hashes of all commits
+     */
+    static HashSet<String> hashes(RepoContext ctx) {
+        if (ctx.journal.pending(ctx.commitLog) == null && !ctx.commitLog.exists()) {
+            return legacyHashes(ctx);
+        }
+        HashSet<String> result = new HashSet<>();
+        scan(ctx, entry -> {
+            result.add(entry.getHash());
+            return true;
+        });
+        return result;
+    }
+
+    private static InputStream open(File file, byte[] pending) throws IOException {
+        if (pending != null) {
+            return new ByteArrayInputStream(pending);
+        }
+        return new BufferedInputStream(new FileInputStream(file), Blob.BUFFER_SIZE);
+    }
+
+    private static byte[] header() {
+        return ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).array();
+    }
+
+    /** Return the record of COMMIT, its length included. */
+    private static byte[] record(Commit commit) {
+        byte[] time = commit.getTime().getBytes(StandardCharsets.UTF_8);
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        int parents = commit.getParent() == null ? 0 : commit.isMerge() ? 2 : 1;
+        int length = RawHash.BYTES + 1 + parents * RawHash.BYTES + 8
+                + 4 + time.length + 4 + message.length;
+        ByteBuffer out = ByteBuffer.allocate(4 + length);
+        out.putInt(length);
+        RawHash.put(out, commit.getHash());
+        out.put((byte) parents);
+        if (parents > 0) {
+            RawHash.put(out, commit.getParent());
+        }
+        if (parents > 1) {
+            RawHash.put(out, commit.getMergeParent());
+        }
+        out.putLong(commit.getTimestamp());
+        out.putInt(time.length).put(time);
+        out.putInt(message.length).put(message);
+        return out.array();
+    }
+
+    /** Return the commit of a record, its length left out. */
+    private static LogEntry entry(ByteBuffer record) {
+        String hash = RawHash.toHex(record, 0);
+        int parents = record.get(RawHash.BYTES);
+        int at = RawHash.BYTES + 1;
+        String parent = parents > 0 ? RawHash.toHex(record, at) : null;
+        String mergeParent = parents > 1 ? RawHash.toHex(record, at + RawHash.BYTES) : null;
+        record.position(at + parents * RawHash.BYTES + 8);
+        String time = string(record);
+        String message = string(record);
+        return new LogEntry(hash, parent, mergeParent, time, message);
+    }
+
+    /** Read a length and that many bytes of UTF-8 from RECORD. */
+    private static String string(ByteBuffer record) {
+        int length = record.getInt();
+        String result = new String(record.array(), record.position(), length,
+                StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return result;
+    }
+
+    /** Return the commits listed in commitList, oldest first. */
+    private static List<Commit> legacy(RepoContext ctx) {
+        List<Commit> commits = new ArrayList<>();
+        for (String hash : legacyHashes(ctx)) {
+            commits.add(GitUtils.getCommit(ctx, hash));
+        }
+        commits.sort(Comparator.comparingLong(Commit::getTimestamp)
+                .thenComparing(Commit::getHash));
+        return commits;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashSet<String> legacyHashes(RepoContext ctx) {
+        if (!ctx.commitList.exists()) {
+            return new HashSet<>();
+        }
+        return ctx.state.read(ctx.commitList, HashSet.class);
+    }
+}
@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** A long-running gitlet process serving the repository in the CWD, so
+ *  that commands don't pay for JVM startup and find the state files,
+ *  commits and packs already in memory.
+ *  The daemon listens on the Unix domain socket .gitlet/daemon.sock and
+ *  runs one command at a time. Main forwards its arguments there whenever
+ *  the socket exists. A request is the number of arguments followed by
+ *  each argument in modified UTF-8; the response is a sequence of frames,
+ *  each a type byte and an int, the type being OUT or ERR followed by that
+ *  many bytes of output, or EXIT with the exit status, which ends it.
+ */
+class Daemon {
+
+    /** The socket, relative to the CWD. */
+    static final Path SOCKET = Paths.get(".gitlet", "daemon.sock");
+
+    /** Frame ending a response, holding the exit status. */
+    private static final byte EXIT = 0;
+
+    /** Frame holding standard output. */
+    private static final byte OUT = 1;
+
+    /** Frame holding standard error. */
+    private static final byte ERR = 2;
+
+    /** Whether this process is a daemon running a command. */
+    private static volatile boolean serving;
+
+    /**
+     * Whether this process is a daemon
+     */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * Serve commands until a daemon-stop command is received
+     * @param repo the repository of the CWD, kept open between commands
+     */
+    static void serve(GitletRepository repo) {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET));
+            Runtime.getRuntime().addShutdownHook(new Thread(Daemon::removeSocket));
+            PrintStream stdout = System.out;
+            PrintStream stderr = System.err;
+            serving = true;
+            boolean stop = false;
+            while (!stop) {
+                try (SocketChannel client = server.accept()) {
+                    stop = handle(client, repo);
+                } catch (IOException excp) {
+                    // The client went away; keep serving the others.
+                } finally {
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            serving = false;
+            removeSocket();
+        }
+    }
+
+    /**
+     * Run the command of one client, sending its output back
+     * @return whether the daemon was asked to stop
+     */
+    private static boolean handle(SocketChannel client, GitletRepository repo)
+            throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Blob.BUFFER_SIZE));
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(
+                new FrameOutputStream(out, OUT), Blob.BUFFER_SIZE));
+        PrintStream stderr = new PrintStream(new FrameOutputStream(out, ERR), true);
+        System.setOut(stdout);
+        System.setErr(stderr);
+
+        boolean stop = args.length == 1 && args[0].equals("daemon-stop");
+        int status = 0;
+        if (!stop) {
+            try {
+                Main.run(args, repo);
+            } catch (RuntimeException | Error excp) {
+                stdout.flush();
+                stderr.print("Exception in thread \"main\" ");
+                excp.printStackTrace(stderr);
+                status = 1;
+            }
+        }
+        stdout.flush();
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+        return stop;
+    }
+
+    /**
+     * Run a command in the daemon serving the CWD, if there is one,
+     * and exit with its status
+     * @param args the arguments of the command
+     * @return false if no daemon is serving the CWD
+     */
+    static boolean forward(String[] args) {
+        if (!Files.exists(SOCKET)) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] buf = new byte[Blob.BUFFER_SIZE];
+            for (byte type = in.readByte(); type != EXIT; type = in.readByte()) {
+                PrintStream dest = type == OUT ? System.out : System.err;
+                for (int left = in.readInt(); left > 0;) {
+                    int n = in.read(buf, 0, Math.min(left, buf.length));
+                    if (n < 0) {
+                        throw new IOException("daemon closed the connection");
+                    }
+                    dest.write(buf, 0, n);
+                    left -= n;
+                }
+                dest.flush();
+            }
+            System.exit(in.readInt());
+        } catch (ConnectException excp) {
+            // Left behind by a daemon that was killed.
+            removeSocket();
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    private static void removeSocket() {
+        try {
+            Files.deleteIfExists(SOCKET);
+        } catch (IOException excp) {
+            // Nothing more can be done about it.
+        }
+    }
+
+    /** Sends everything written to it as frames of one type. */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Binary deltas between two byte arrays, in the copy/insert instruction
+ *  format git uses in its packs. A delta starts with the lengths of the
+ *  base and of the result as varints, followed by instructions:
+ *  a byte with the high bit set copies a range of the base (the low bits
+ *  say which offset and size bytes follow), any other non-zero byte N
+ *  inserts the N literal bytes that follow it.
+ */
+class Delta {
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Largest size a single copy instruction can carry. */
+    private static final int MAX_COPY = 0xffffff;
+
+    /** Largest number of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+
+    /**
+     * Return a delta that turns BASE into TARGET
+     * @param base   the base content
+     * @param target the content to be produced
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 8) * 2);
+        int mask = size - 1;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        // Walk backwards so that the earliest block wins each slot.
+        for (int b = blocks - 1; b >= 0; b--) {
+            table[hashBlock(base, b * BLOCK) & mask] = b * BLOCK;
+        }
+
+        int pos = 0;
+        int literal = 0;
+        while (pos + BLOCK <= target.length) {
+            int cand = table[hashBlock(target, pos) & mask];
+            if (cand < 0 || !sameBlock(base, cand, target, pos)) {
+                pos++;
+                continue;
+            }
+            int baseStart = cand;
+            int start = pos;
+            while (start > literal && baseStart > 0
+                    && base[baseStart - 1] == target[start - 1]) {
+                baseStart--;
+                start--;
+            }
+            int baseEnd = cand + BLOCK;
+            int end = pos + BLOCK;
+            while (end < target.length && baseEnd < base.length
+                    && base[baseEnd] == target[end]) {
+                baseEnd++;
+                end++;
+            }
+
+            insert(out, target, literal, start);
+            copy(out, baseStart, end - start);
+            pos = end;
+            literal = end;
+        }
+        insert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply DELTA to BASE
+     * @param base  the base content
+     * @param delta a delta made by {@link #create} against BASE
+     * @return the content the delta describes
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        long baseLength = readVarint(delta, pos);
+        long length = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not apply to its base.");
+        }
+
+        byte[] result = new byte[(int) length];
+        int at = 0;
+        int i = pos[0];
+        while (i < delta.length) {
+            int cmd = delta[i++] & 0xff;
+            if ((cmd & 0x80) != 0) {
+                int offset = 0;
+                int size = 0;
+                for (int k = 0; k < 4; k++) {
+                    if ((cmd & (1 << k)) != 0) {
+                        offset |= (delta[i++] & 0xff) << (8 * k);
+                    }
+                }
+                for (int k = 0; k < 3; k++) {
+                    if ((cmd & (0x10 << k)) != 0) {
+                        size |= (delta[i++] & 0xff) << (8 * k);
+                    }
+                }
+                if (size == 0) {
+                    // A copy of exactly 0x10000 bytes has no size bytes.
+                    size = 0x10000;
+                }
+                System.arraycopy(base, offset, result, at, size);
+                at += size;
+            } else if (cmd != 0) {
+                System.arraycopy(delta, i, result, at, cmd);
+                i += cmd;
+                at += cmd;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (at != length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Emit insert instructions for TARGET[FROM, TO). */
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+
+    /** Emit copy instructions for SIZE bytes of the base at OFFSET. */
+    private static void copy(ByteArrayOutputStream out, int offset, int size) {
+        while (size > 0) {
+            int n = Math.min(MAX_COPY, size);
+            int cmd = 0x80;
+            ByteArrayOutputStream args = new ByteArrayOutputStream();
+            for (int k = 0; k < 4; k++) {
+                int b = (offset >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    cmd |= 1 << k;
+                    args.write(b);
+                }
+            }
+            for (int k = 0; k < 3; k++) {
+                int b = (n >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    cmd |= 0x10 << k;
+                    args.write(b);
+                }
+            }
+            out.write(cmd);
+            out.write(args.toByteArray(), 0, args.size());
+            offset += n;
+            size -= n;
+        }
+    }
+
+    private static int hashBlock(byte[] data, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * 31 + data[off + k];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameBlock(byte[] a, int aOff, byte[] b, int bOff) {
+        return Arrays.equals(a, aOff, aOff + BLOCK, b, bOff, bOff + BLOCK);
+    }
+
+    /**
+     * Return the length of the content a delta describes, reading only
+     * the start of the delta
+     * @param delta a delta made by {@link #create}, positioned at its start
+     */
+    static long resultLength(InputStream delta) throws IOException {
+        readVarint(delta);
+        return readVarint(delta);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
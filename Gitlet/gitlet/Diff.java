@@ -0,0 +1,344 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A line-level diff of two texts, computed with Myers' O(ND) algorithm
+ *  in its linear-space form: the middle snake of the edit graph is found
+ *  by searching from both ends at once, and the two halves on each side
+ *  of it are diffed recursively, so memory stays proportional to the
+ *  number of lines whatever the number of differences.
+ *  The histogram variant instead matches the longest run of common lines
+ *  around the line occurring least often in the old text, and diffs the
+ *  lines before and after it recursively; a range whose common lines
+ *  all occur more than MAX_CHAIN times is left to Myers' algorithm.
+ *  Texts are split into lines without being decoded, and every distinct
+ *  line is given a number shared by all the texts split together, so
+ *  lines are compared as ints.
+ */
+class Diff {
+
+    /** Most occurrences of a line the histogram variant anchors on. */
+    private static final int MAX_CHAIN = 64;
+
+    /** A text split into lines. Line I is the bytes of CONTENT from
+     *  START[I] up to START[I + 1], its newline included. */
+    static class Text {
+        /** The bytes of the text. */
+        final byte[] content;
+        /** Where each line starts, followed by the length of CONTENT. */
+        final int[] start;
+        /** Number of each line; equal lines have equal numbers. */
+        final int[] ids;
+
+        private Text(byte[] content, int[] start, int[] ids) {
+            this.content = content;
+            this.start = start;
+            this.ids = ids;
+        }
+
+        /** Return the number of lines. */
+        int size() {
+            return ids.length;
+        }
+    }
+
+    /** A change: lines [aStart, aEnd) of the first text are replaced by
+     *  lines [bStart, bEnd) of the second. Either range may be empty. */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** A line of some text, as a key of the table numbering lines. */
+    private static class Line {
+        private final byte[] content;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Line(byte[] content, int start, int end) {
+            this.content = content;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + content[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) o;
+            return hash == other.hash && Arrays.equals(content, start, end,
+                    other.content, other.start, other.end);
+        }
+    }
+
+    /**
+     * Split texts into lines numbered alike
+     * @param contents the bytes of each text
+     * @return the texts, in the same order
+     */
+    static Text[] split(byte[]... contents) {
+        HashMap<Line, Integer> numbers = new HashMap<>();
+        Text[] result = new Text[contents.length];
+        for (int t = 0; t < contents.length; t++) {
+            byte[] content = contents[t];
+            int lines = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n' || i == content.length - 1) {
+                    lines++;
+                }
+            }
+            int[] start = new int[lines + 1];
+            int[] ids = new int[lines];
+            int line = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n' || i == content.length - 1) {
+                    start[line + 1] = i + 1;
+                    Line key = new Line(content, start[line], i + 1);
+                    Integer id = numbers.putIfAbsent(key, numbers.size());
+                    ids[line] = id == null ? numbers.size() - 1 : id;
+                    line++;
+                }
+            }
+            result[t] = new Text(content, start, ids);
+        }
+        return result;
+    }
+
+    /**
+     * Return the changes turning one text into another, in order, none
+     * of them adjacent to the next
+     * @param a the old text
+     * @param b the new text
+     */
+    static List<Edit> diff(Text a, Text b) {
+        return diff(a, b, DiffAlgorithm.MYERS);
+    }
+
+    /**
+     * Return the changes turning one text into another, in order, none
+     * of them adjacent to the next
+     * @param a         the old text
+     * @param b         the new text
+     * @param algorithm how to compute them
+     */
+    static List<Edit> diff(Text a, Text b, DiffAlgorithm algorithm) {
+        List<Edit> edits = new ArrayList<>();
+        if (algorithm == DiffAlgorithm.HISTOGRAM) {
+            histogram(a.ids, 0, a.size(), b.ids, 0, b.size(), edits);
+        } else {
+            diff(a.ids, 0, a.size(), b.ids, 0, b.size(), edits);
+        }
+
+        List<Edit> merged = new ArrayList<>();
+        for (Edit edit : edits) {
+            Edit last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.aEnd == edit.aStart && last.bEnd == edit.bStart) {
+                merged.set(merged.size() - 1,
+                        new Edit(last.aStart, edit.aEnd, last.bStart, edit.bEnd));
+            } else {
+                merged.add(edit);
+            }
+        }
+        return merged;
+    }
+
+    /** Add the edits turning A[aLo, aHi) into B[bLo, bHi) to EDITS. */
+    private static void diff(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                             List<Edit> edits) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+
+        int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        if (split == null) {
+            edits.add(new Edit(aLo, aHi, bLo, bHi));
+            return;
+        }
+        diff(a, aLo, split[0], b, bLo, split[1], edits);
+        diff(a, split[0], aHi, b, split[1], bHi, edits);
+    }
+
+    /** Add the edits turning A[aLo, aHi) into B[bLo, bHi) to EDITS, with
+     *  the histogram algorithm. */
+    private static void histogram(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                  List<Edit> edits) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+
+        HashMap<Integer, List<Integer>> occurrences = new HashMap<>();
+        for (int i = aLo; i < aHi; i++) {
+            occurrences.computeIfAbsent(a[i], k -> new ArrayList<>()).add(i);
+        }
+        int[] best = null;
+        int bestCount = MAX_CHAIN + 1;
+        for (int j = bLo; j < bHi; j++) {
+            List<Integer> found = occurrences.get(b[j]);
+            if (found == null || found.size() > bestCount) {
+                continue;
+            }
+            int next = j + 1;
+            for (int i : found) {
+                int count = found.size();
+                int as = i;
+                int bs = j;
+                while (as > aLo && bs > bLo && a[as - 1] == b[bs - 1]) {
+                    as--;
+                    bs--;
+                    count = Math.min(count, occurrences.get(a[as]).size());
+                }
+                int ae = i + 1;
+                int be = j + 1;
+                while (ae < aHi && be < bHi && a[ae] == b[be]) {
+                    count = Math.min(count, occurrences.get(a[ae]).size());
+                    ae++;
+                    be++;
+                }
+                next = Math.max(next, be);
+                if (best == null || count < bestCount
+                        || (count == bestCount && ae - as > best[1] - best[0])) {
+                    best = new int[] {as, ae, bs, be};
+                    bestCount = count;
+                }
+            }
+            j = next - 1;
+        }
+
+        if (best == null) {
+            diff(a, aLo, aHi, b, bLo, bHi, edits);
+            return;
+        }
+        histogram(a, aLo, best[0], b, bLo, best[2], edits);
+        histogram(a, best[1], aHi, b, best[3], bHi, edits);
+    }
+
+    /** Return the point {x, y} where a shortest edit path from
+     *  (aLo, bLo) to (aHi, bHi) crosses its middle, found by extending
+     *  furthest-reaching paths from both corners until they overlap;
+     *  null if the ranges have no line in common. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // The paths can only meet on a forward step if DELTA is odd.
+        boolean front = delta % 2 != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1off = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1off - 1] < forward[k1off + 1])) {
+                    x1 = forward[k1off + 1];
+                } else {
+                    x1 = forward[k1off - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1off] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2off = offset + delta - k1;
+                    if (k2off >= 0 && k2off < length && backward[k2off] != -1
+                            && x1 >= n - backward[k2off]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2off = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2off - 1] < backward[k2off + 1])) {
+                    x2 = backward[k2off + 1];
+                } else {
+                    x2 = backward[k2off - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2off] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1off = offset + delta - k2;
+                    if (k1off >= 0 && k1off < length && forward[k1off] != -1) {
+                        int x1 = forward[k1off];
+                        int y1 = offset + x1 - k1off;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,11 @@
+package gitlet;
+
+/** The algorithms a diff can be computed with. */
+public enum DiffAlgorithm {
+    /** Myers' algorithm, which finds a shortest edit script. */
+    MYERS,
+    /** The histogram algorithm, which anchors the diff on the lines that
+     *  occur least often, so that a moved or repeated block of common
+     *  lines, such as braces, doesn't pull unrelated lines into a match. */
+    HISTOGRAM
+}
@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** An immutable bitmap compressed with the word-aligned run-length
+ *  scheme of EWAH. The bitmap is a sequence of 64-bit words, each a
+ *  marker followed by literal words. A marker holds a running bit (bit 0),
+ *  the number of words that are all that bit (bits 1-32) and the number
+ *  of literal words that follow it (bits 33-63).
+ *  Long stretches of set or clear bits, as in the reachability of a
+ *  branch head, take a single marker.
+ */
+class EwahBitmap {
+
+    /** Largest run length a marker can hold. */
+    private static final long MAX_RUN = 0xffffffffL;
+
+    /** Largest number of literal words a marker can announce. */
+    private static final long MAX_LITERALS = 0x7fffffffL;
+
+    /** The compressed words. */
+    private final long[] words;
+
+    private EwahBitmap(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Return the compressed form of BITS
+     */
+    static EwahBitmap of(BitSet bits) {
+        long[] plain = bits.toLongArray();
+        long[] out = new long[plain.length + plain.length / 2 + 1];
+        int n = 0;
+        int i = 0;
+        while (i < plain.length) {
+            long run = 0;
+            boolean running = plain[i] == -1L;
+            long clean = running ? -1L : 0L;
+            while (i < plain.length && plain[i] == clean && run < MAX_RUN) {
+                run++;
+                i++;
+            }
+            int first = i;
+            while (i < plain.length && plain[i] != 0L && plain[i] != -1L
+                    && i - first < MAX_LITERALS) {
+                i++;
+            }
+            out[n++] = (running ? 1L : 0L) | (run << 1) | ((long) (i - first) << 33);
+            System.arraycopy(plain, first, out, n, i - first);
+            n += i - first;
+        }
+        return new EwahBitmap(Arrays.copyOf(out, n));
+    }
+
+    /**
+     * Whether bit POS is set, read without decompressing
+     */
+    boolean get(int pos) {
+        long target = pos >>> 6;
+        long at = 0;
+        int i = 0;
+        while (i < words.length) {
+            long marker = words[i++];
+            long run = (marker >>> 1) & MAX_RUN;
+            long literals = marker >>> 33;
+            if (target < at + run) {
+                return (marker & 1) != 0;
+            }
+            at += run;
+            if (target < at + literals) {
+                return (words[i + (int) (target - at)] & (1L << (pos & 63))) != 0;
+            }
+            at += literals;
+            i += (int) literals;
+        }
+        return false;
+    }
+
+    /**
+     * Return the uncompressed bits
+     */
+    BitSet toBitSet() {
+        long[] plain = new long[16];
+        int n = 0;
+        int i = 0;
+        while (i < words.length) {
+            long marker = words[i++];
+            long run = (marker >>> 1) & MAX_RUN;
+            int literals = (int) (marker >>> 33);
+            if (n + run + literals > plain.length) {
+                plain = Arrays.copyOf(plain,
+                        (int) Math.max(2L * plain.length, n + run + literals));
+            }
+            if ((marker & 1) != 0) {
+                Arrays.fill(plain, n, (int) (n + run), -1L);
+            }
+            n += (int) run;
+            System.arraycopy(words, i, plain, n, literals);
+            n += literals;
+            i += literals;
+        }
+        return BitSet.valueOf(Arrays.copyOf(plain, n));
+    }
+
+    /**
+     * Return the size of the compressed bitmap in bytes
+     */
+    int byteSize() {
+        return 8 * words.length;
+    }
+
+    /**
+     * Write the compressed words to OUT, preceded by their count
+     */
+    void writeTo(ByteBuffer out) {
+        out.putInt(words.length);
+        for (long word : words) {
+            out.putLong(word);
+        }
+    }
+
+    /**
+     * Read a bitmap written by {@link #writeTo}
+     */
+    static EwahBitmap readFrom(ByteBuffer in) {
+        long[] words = new long[in.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.getLong();
+        }
+        return new EwahBitmap(words);
+    }
+}
@@ -1,128 +1,123 @@
 package gitlet;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static gitlet.Utils.join;
 
 public class GitUtils {
-    /** gitlet directory */
-    static final File OBJECTS = Utils.join(".gitlet", "objects");
-
-    static final File COMMITS = Utils.join(OBJECTS, "commits");
-
-    static final File BLOBS = Utils.join(OBJECTS, "blobs");
-
-    static final File INDEX = Utils.join(".gitlet", "INDEX");
-    static final File INDEX_RM = Utils.join(".gitlet", "INDEX_RM");
-    static final File LOCAL_HEAD = Utils.join(".gitlet", "refs", "heads");
-    static final File HEAD = Utils.join(".gitlet", "HEAD");
-
-    static final File COMMITLIST = Utils.join(".gitlet", "commitList");
-
-    static final File BRANCHLIST = Utils.join(".gitlet", "branchList");
-
-    /** The current working directory. */
-    static final File CWD = new File(System.getProperty("user.dir"));
-    /** The .gitlet directory. */
-    static final File GITLET_DIR = join(CWD, ".gitlet");
-
     /**
      * set up dog gitlet folder and subfolders
      */
-    static void setDirectory() {
-        GITLET_DIR.mkdirs();
+    static void setDirectory(RepoContext ctx) {
+        ctx.gitletDir.mkdirs();
 
-        OBJECTS.mkdirs();
-        COMMITS.mkdirs();
-        BLOBS.mkdirs();
+        ctx.objects.mkdirs();
+        ctx.commits.mkdirs();
+        ctx.blobs.mkdirs();
+        ctx.trees.mkdirs();
 
-        LOCAL_HEAD.mkdirs();
-        HashMap<String, String> index = new HashMap<String, String>();
-        Utils.writeObject(INDEX, index);
-        HashMap<String, String> indexRM = new HashMap<String, String>();
-        Utils.writeObject(INDEX_RM, indexRM);
+        ctx.localHead.mkdirs();
+        StagingIndex.get(ctx).clear();
 
-        HashSet<String> commits = new HashSet<>();
-        Utils.writeObject(COMMITLIST, commits);
+        CommitLog.create(ctx);
+        CommitIndex.rebuild(ctx);
 
         ArrayList<String> branches = new ArrayList<>();
-        Utils.writeObject(BRANCHLIST, branches);
+        ctx.state.write(ctx.branchList, branches);
 
-        Utils.writeContents(HEAD, "master");
+        ctx.state.writeString(ctx.head, "master");
     }
 
     /**
      * Whether the repo is inited
      */
-    static boolean isInited() {
-        return GITLET_DIR.exists();
+    static boolean isInited(RepoContext ctx) {
+        return ctx.gitletDir.exists();
     }
 
     /**
      * Add a branch to the branch list
+     * @param ctx        the repository
      * @param branchName
      */
-    static void addBranch(String branchName) {
-        ArrayList<String> branches = Utils.readObject(BRANCHLIST, ArrayList.class);
+    static void addBranch(RepoContext ctx, String branchName) {
+        ArrayList<String> branches = ctx.state.read(ctx.branchList, ArrayList.class);
         branches.add(branchName);
-        Utils.writeObject(BRANCHLIST, branches);
+        ctx.state.write(ctx.branchList, branches);
     }
 
     /**
      * Return a list of all the branches
      */
-    static ArrayList<String> getBranches() {
-        ArrayList<String> branches = Utils.readObject(BRANCHLIST, ArrayList.class);
+    static ArrayList<String> getBranches(RepoContext ctx) {
+        ArrayList<String> branches = ctx.state.read(ctx.branchList, ArrayList.class);
         return branches;
     }
 
     /**
      * Return a list of all the commits
      */
-    static HashSet<String> getCommits() {
-        HashSet<String> commits = Utils.readObject(COMMITLIST, HashSet.class);
-        return commits;
+    static HashSet<String> getCommits(RepoContext ctx) {
+        return CommitLog.hashes(ctx);
     }
 
     /**
      * Remove a branch from the branch list && from local heads
+     * @param ctx        the repository
      * @param branchName
      */
-    static void removeBranch(String branchName) {
-        ArrayList<String> branches = Utils.readObject(BRANCHLIST, ArrayList.class);
+    static void removeBranch(RepoContext ctx, String branchName) {
+        ArrayList<String> branches = ctx.state.read(ctx.branchList, ArrayList.class);
         branches.remove(branchName);
-        Utils.writeObject(BRANCHLIST, branches);
+        ctx.state.write(ctx.branchList, branches);
 
-        File branch = join(LOCAL_HEAD, branchName);
-        branch.delete();
+        String head = getBranchHead(ctx, branchName);
+        ctx.state.delete(join(ctx.localHead, branchName));
+        ctx.journal.afterCommit(() -> BranchBitmaps.remove(ctx, head));
     }
 
     /**
-     * Add a commit to the commitList (hash)
+     * Add a commit to the commit log
+     * @param ctx        the repository
      * @param commitHash
      */
-    static void addCommit(String commitHash) {
-        HashSet<String> commits = Utils.readObject(COMMITLIST, HashSet.class);
-        commits.add(commitHash);
-        Utils.writeObject(COMMITLIST, commits);
+    static void addCommit(RepoContext ctx, String commitHash) {
+        Commit commit = getCommit(ctx, commitHash);
+        CommitLog.append(ctx, commit);
+
+        // The indexes are derived from the commits, so they are only
+        // updated once the commit is on disk.
+        ctx.journal.afterCommit(() -> {
+            CommitIndex.add(ctx, commitHash);
+            CommitGraph.add(ctx, commit);
+            BranchBitmaps.update(ctx, commit);
+        });
     }
 
     /**
+     * @param ctx    the repository
      * @param branch Update the branch the head pointer is pointing to
      */
-    static void writeHead(String branch) {
-        Utils.writeContents(HEAD, branch);
+    static void writeHead(RepoContext ctx, String branch) {
+        ctx.state.writeString(ctx.head, branch);
     }
 
     /**
      * get current HEAD commit hash as a string
      * @return hash of the current commit/HEAD
      */
-    static String getHead() {
-        String curBranch = Utils.readContentsAsString(HEAD);
-        File branchHead = Utils.join(LOCAL_HEAD, curBranch);
-        return Utils.readContentsAsString(branchHead);
+    static String getHead(RepoContext ctx) {
+        String curBranch = ctx.state.readString(ctx.head);
+        File branchHead = Utils.join(ctx.localHead, curBranch);
+        return ctx.state.readString(branchHead);
     }
 
     /**
@@ -131,9 +126,9 @@ public class GitUtils {
      * @return
      */
 
-    static String getBranchHead(String branchName) {
-        File head = Utils.join(LOCAL_HEAD, branchName);
-        return Utils.readContentsAsString(head);
+    static String getBranchHead(RepoContext ctx, String branchName) {
+        File head = Utils.join(ctx.localHead, branchName);
+        return ctx.state.readString(head);
     }
 
     /**
@@ -141,149 +136,299 @@ public class GitUtils {
      * @return
      */
 
-    static String currentBranch() {
-        return Utils.readContentsAsString(HEAD);
+    static String currentBranch(RepoContext ctx) {
+        return ctx.state.readString(ctx.head);
     }
 
     /**
      * write local branch head in .gitlet/refs/heads
+     * @param ctx    the repository
      * @param hash   hash of the newest commit
      * @param branch branch to update
      */
-    static void updateBranchHead(String hash, String branch) {
-        File branchHead = Utils.join(LOCAL_HEAD, branch);
-        Utils.writeContents(branchHead, hash);
+    static void updateBranchHead(RepoContext ctx, String hash, String branch) {
+        File branchHead = Utils.join(ctx.localHead, branch);
+        ctx.state.writeString(branchHead, hash);
     }
 
     /**
-     * write git INDEX file to record staged file
-     * @param hash     hash of the blob of staged file
-     * @param filename filename of the stage file in the CWD
-     * @return true if write to index
+     * Write a commit to .gitlet
+     * Update branch heads and stuff
+     * @param ctx    the repository
+     * @param commit Commit
      */
-    static boolean writeStagedToIndex(String hash, String filename) {
-        HashMap<String, String> files = Utils.readObject(INDEX, HashMap.class);
-        Commit curCommit = getCurrentCommit();
-        HashMap<String, String> curFiles = curCommit.getContents();
+    static void writeCommit(RepoContext ctx, Commit commit) {
+        String hash = commit.getHash();
+        File loc = Utils.join(ctx.commits, hash);
 
-        if (files.containsKey(filename)) {
-            // Not supposed to stage
-            if (hash.equals(files.get(filename))) {
-                return false;
-            }
-        }
+        ctx.journal.write(loc, Utils.serialize(commit));
+        ctx.cache.putCommit(commit);
+        String curBranch = currentBranch(ctx);
+        writeHead(ctx, curBranch);
+        updateBranchHead(ctx, hash, curBranch);
+    }
 
-        if (curFiles.containsKey(filename) && hash.equals(curFiles.get(filename))) {
-            // Not supposed to stage
-            // Remove from staging area
-            removeFromStagingArea(filename);
-            return false;
+    /**
+     * Write a blob to .gitlet by putting its temporary object file in
+     * place, unless an object with its hash is already stored
+     * @param ctx  the repository
+     * @param blob Blob, made with new Blob(ctx, filename)
+     */
+    static void writeBlob(RepoContext ctx, Blob blob) {
+        String hash = blob.getHash();
+        if (Pack.find(ctx, hash) != null) {
+            blob.discard();
+            return;
         }
 
-        files.put(filename, hash);
-        Utils.writeObject(INDEX, files);
-        return true;
+        LooseObject.install(blob.getObject(), Utils.join(ctx.blobs, hash));
+    }
 
+    /**
+     * Write a tree to .gitlet, unless it is already there
+     * @param ctx  the repository
+     * @param tree Tree
+     */
+    static void writeTree(RepoContext ctx, Tree tree) {
+        String hash = tree.getHash();
+        File loc = Utils.join(ctx.trees, hash);
+        ctx.cache.putTree(tree);
+        if (loc.exists() || ctx.journal.isPending(loc) || Pack.find(ctx, hash) != null) {
+            return;
+        }
+        ctx.journal.write(loc, Utils.serialize(tree));
     }
 
     /**
-     * Remove a file from the staging area (both addition and removal)
-     * @param file Filename
+     * Consolidate all loose commits, trees and blobs (and any existing packs)
+     * into a single pack, then delete the loose copies
      */
-    static void removeFromStagingArea(String file) {
-        HashMap<String, String> addition = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removal = Utils.readObject(INDEX_RM, HashMap.class);
+    static void pack(RepoContext ctx) {
+        List<Pack> oldPacks = new ArrayList<>(Pack.all(ctx));
+        TreeSet<String> commits = new TreeSet<>();
+        for (String name : Utils.plainFilenamesIn(ctx.commits)) {
+            if (name.length() == Utils.UID_LENGTH) {
+                commits.add(name);
+            }
+        }
+        TreeSet<String> trees = new TreeSet<>();
+        if (ctx.trees.isDirectory()) {
+            for (String name : Utils.plainFilenamesIn(ctx.trees)) {
+                if (name.length() == Utils.UID_LENGTH) {
+                    trees.add(name);
+                }
+            }
+        }
+        TreeSet<String> blobs = new TreeSet<>();
+        for (String name : Utils.plainFilenamesIn(ctx.blobs)) {
+            if (name.length() == Utils.UID_LENGTH) {
+                blobs.add(name);
+            }
+        }
+        TreeSet<String> looseCommits = new TreeSet<>(commits);
+        TreeSet<String> looseTrees = new TreeSet<>(trees);
+        TreeSet<String> looseBlobs = new TreeSet<>(blobs);
+        for (Pack pack : oldPacks) {
+            for (String hash : pack.objects()) {
+                byte type = pack.typeOf(hash);
+                if (type == Pack.COMMIT) {
+                    commits.add(hash);
+                } else if (type == Pack.TREE) {
+                    trees.add(hash);
+                } else {
+                    blobs.add(hash);
+                }
+            }
+        }
+        if (oldPacks.size() <= 1 && looseCommits.isEmpty() && looseTrees.isEmpty()
+                && looseBlobs.isEmpty()) {
+            return;
+        }
 
-        if (addition.containsKey(file)) {
-            addition.remove(file);
+        // Name each blob after a file it was committed as, to find delta
+        // bases. Every tree is read once, however many commits share it.
+        HashMap<String, String> blobNames = new HashMap<>();
+        for (String tree : trees) {
+            for (Map.Entry<String, String> entry : getTree(ctx, tree).getFiles().entrySet()) {
+                blobNames.put(entry.getValue(), entry.getKey());
+            }
         }
-        if (removal.containsKey(file)) {
-            removal.remove(file);
+        for (String commit : commits) {
+            Commit c = getCommit(ctx, commit);
+            if (c.entryCount() > 0) {
+                for (Map.Entry<String, String> entry : c.getContents(ctx).entrySet()) {
+                    blobNames.put(entry.getValue(), entry.getKey());
+                }
+            }
         }
 
-        Utils.writeObject(INDEX, addition);
-        Utils.writeObject(INDEX_RM, removal);
+        File idx = Pack.write(ctx, new ArrayList<>(commits), new ArrayList<>(trees),
+                new ArrayList<>(blobs), blobNames,
+                new Pack.ObjectSource() {
+                    @Override
+                    public long size(String hash) {
+                        File loose = Utils.join(ctx.blobs, hash);
+                        return loose.exists()
+                                ? LooseObject.size(loose) : Pack.find(ctx, hash).size(hash);
+                    }
+
+                    @Override
+                    public byte[] read(String hash) {
+                        File commit = Utils.join(ctx.commits, hash);
+                        File tree = Utils.join(ctx.trees, hash);
+                        File blob = Utils.join(ctx.blobs, hash);
+                        if (commit.exists()) {
+                            return Utils.readContents(commit);
+                        } else if (tree.exists()) {
+                            return Utils.readContents(tree);
+                        } else if (blob.exists()) {
+                            return LooseObject.read(blob);
+                        }
+                        return Pack.find(ctx, hash).read(hash);
+                    }
+
+                    @Override
+                    public InputStream open(String hash) {
+                        return openBlob(ctx, hash);
+                    }
+                });
+
+        for (Pack pack : oldPacks) {
+            if (!pack.getIndexFile().equals(idx)) {
+                pack.delete();
+            }
+        }
+        for (String commit : looseCommits) {
+            Utils.join(ctx.commits, commit).delete();
+        }
+        for (String tree : looseTrees) {
+            Utils.join(ctx.trees, tree).delete();
+        }
+        for (String blob : looseBlobs) {
+            Utils.join(ctx.blobs, blob).delete();
+        }
     }
 
     /**
-     * Write a commit to .gitlet
-     * Update branch heads and stuff
-     * @param commit Commit
+     * Rewrite blobs stored by older versions (serialized or uncompressed)
+     * in the current compressed object format
+     * @return number of blobs rewritten
      */
-    static void writeCommit(Commit commit) {
-        String hash = commit.getHash();
-        File loc = Utils.join(COMMITS, hash);
-
-        Utils.writeObject(loc, commit);
-        String curBranch = currentBranch();
-        writeHead(curBranch);
-        updateBranchHead(hash, curBranch);
+    static int migrateBlobs(RepoContext ctx) {
+        int count = 0;
+        for (String name : Utils.plainFilenamesIn(ctx.blobs)) {
+            if (name.length() == Utils.UID_LENGTH
+                    && LooseObject.upgrade(Utils.join(ctx.blobs, name), LooseObject.BLOB)) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
-     * Write a blob to .gitlet
-     * @param blob Blob
+     * Get all commits
      */
-    static void writeBlob(Blob blob) {
-        String hash = blob.getHash();
-        File loc = Utils.join(BLOBS, hash);
-
-        Utils.writeObject(loc, blob);
+    static List<String> getAllCommits(RepoContext ctx) {
+        return Utils.plainFilenamesIn(ctx.commits);
     }
 
     /**
-     * Get all commits
+     * Find the commits whose hash starts with a full or abbreviated id
+     * @param ctx   the repository
+     * @param id    a commit hash or a prefix of one
+     * @param limit most hashes needed
+     * @return up to LIMIT full hashes, in sorted order
      */
-    static List<String> getAllCommits() {
-        return Utils.plainFilenamesIn(COMMITS);
+    static List<String> findCommits(RepoContext ctx, String id, int limit) {
+        return CommitIndex.find(ctx, id, limit);
     }
 
     /**
      * Get the current commit
      * @return: current commit
      */
-    static Commit getCurrentCommit() {
-        File commit = Utils.join(COMMITS, getHead());
-        return Utils.readObject(commit, Commit.class);
+    static Commit getCurrentCommit(RepoContext ctx) {
+        return getCommit(ctx, getHead(ctx));
     }
 
     /**
-     * Get a commit based on its hash
+     * Get a commit based on its hash, whether it is loose, packed or
+     * written by the open transaction
      * @return: commit
      */
-    static Commit getCommit(String hash) {
-        File loc = Utils.join(COMMITS, hash);
-        Commit commit = Utils.readObject(loc, Commit.class);
+    static Commit getCommit(RepoContext ctx, String hash) {
+        ObjectCache cache = ctx.cache;
+        Commit commit = cache.getCommit(hash);
+        if (commit != null) {
+            return commit;
+        }
+
+        File loc = Utils.join(ctx.commits, hash);
+        byte[] pending = ctx.journal.pending(loc);
+        Pack pack = loc.exists() || pending != null ? null : Pack.find(ctx, hash);
+        if (pending != null) {
+            commit = Utils.deserialize(pending, Commit.class);
+        } else if (pack != null) {
+            commit = Utils.deserialize(pack.read(hash), Commit.class);
+        } else {
+            commit = Utils.readObject(loc, Commit.class);
+        }
+        cache.putCommit(commit);
         return commit;
     }
 
+    /**
+     * Get a tree based on its hash, whether it is loose, packed or
+     * written by the open transaction
+     * @return: tree
+     */
+    static Tree getTree(RepoContext ctx, String hash) {
+        ObjectCache cache = ctx.cache;
+        Tree tree = cache.getTree(hash);
+        if (tree != null) {
+            return tree;
+        }
+
+        File loc = Utils.join(ctx.trees, hash);
+        byte[] pending = ctx.journal.pending(loc);
+        Pack pack = loc.exists() || pending != null ? null : Pack.find(ctx, hash);
+        if (pending != null) {
+            tree = Utils.deserialize(pending, Tree.class);
+        } else if (pack != null) {
+            tree = Utils.deserialize(pack.read(hash), Tree.class);
+        } else if (!loc.exists() && hash.equals(Tree.EMPTY)) {
+            tree = new Tree();
+        } else {
+            tree = Utils.readObject(loc, Tree.class);
+        }
+        cache.putTree(tree);
+        return tree;
+    }
+
     /**
      * Helper for the rm command
+     * @param ctx  the repository
      * @param file The name of the file to be removed
      * @return: boolean whether or not the removal is successful
      */
-    static boolean removeHelper(String file) {
+    static boolean removeHelper(RepoContext ctx, String file) {
 
         //read from staging area
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
+        StagingIndex index = StagingIndex.get(ctx);
 
         //read from current commit
-        Commit curHead = getCurrentCommit();
-        HashMap<String, String> curFiles = curHead.getContents();
+        Commit curHead = getCurrentCommit(ctx);
+        String blobH = curHead.blobOf(ctx, file);
 
 
 
-        if (stageEntries.containsKey(file)) {
-            stageEntries.remove(file);
-            Utils.writeObject(INDEX, stageEntries);
+        if (index.staged(file) != null) {
+            index.unstage(file);
             return true;
-        } else if (curFiles.containsKey(file)) {
+        } else if (blobH != null) {
 
-            Utils.restrictedDelete(file);
-            String blobH = curFiles.get(file);
-            removalStaged.put(file, blobH);
-            Utils.writeObject(INDEX_RM, removalStaged);
+            deleteWorkingFile(ctx, file);
+            index.stageRemoval(file, blobH);
             return true;
         }
         return false;
@@ -293,81 +438,53 @@ public class GitUtils {
     /**
      * Clear the staging area (including both addition and removal)
      */
-    static void clearStage() {
-        //read from staging area
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        stageEntries.clear();
-        removalStaged.clear();
-
-        Utils.writeObject(INDEX, stageEntries);
-        Utils.writeObject(INDEX_RM, removalStaged);
+    static void clearStage(RepoContext ctx) {
+        StagingIndex.get(ctx).clear();
     }
 
     /**
-     * @param curFiles: files tracked by current commit
+     * Apply the staging area to a tree; only the trees of the
+     * directories holding a staged file are rewritten
+     * @param tree: hash of the tree of the current commit
+     * @return hash of the tree to commit
      */
 
-    static void preCommitUpdate(HashMap<String, String> curFiles) {
-        HashMap<String, String> staged = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
+    static String preCommitUpdate(RepoContext ctx, String tree) {
+        StagingIndex index = StagingIndex.get(ctx);
 
-        for (String file : staged.keySet()) {
-            curFiles.put(file, staged.get(file));
-        }
-
-        if (!removalStaged.isEmpty()) {
-            for (String file: removalStaged.keySet()) {
-                curFiles.remove(file);
-            }
+        HashMap<String, String> changes = index.additions();
+        for (String file: index.removals().keySet()) {
+            changes.put(file, null);
         }
+        return Tree.update(ctx, tree, changes);
     }
 
     /**
      * @return whether or not the staging area is empty
      */
-    static boolean stageIsEmpty() {
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        return (stageEntries.isEmpty()) && (removalStaged.isEmpty());
+    static boolean stageIsEmpty(RepoContext ctx) {
+        return StagingIndex.get(ctx).isEmpty();
     }
 
     /**
      * compare cwd and commit and output a list of untracked files
+     * @param ctx    the repository
      * @param commit
      * @return
      */
-    static LinkedList<String> untrackedFiles(Commit commit) {
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        HashMap<String, String> commitFiles = commit.getContents();
-
-        List<String> workingDir = Utils.plainFilenamesIn(CWD);
-        LinkedList<String> lst = new LinkedList<>();
-
-        for (String file : workingDir) {
-            if (!commitFiles.containsKey(file)) {
-                lst.add(file);
-            }
-        }
-
-        for (Iterator<String> it = lst.iterator(); it.hasNext();) {
-            String file = it.next();
-            if (stageEntries.containsKey(file) || removalStaged.containsKey(file)) {
-                it.remove();
-            }
-        }
-        return lst;
+    static LinkedList<String> untrackedFiles(RepoContext ctx, Commit commit) {
+        return new WorkingTree(ctx, commit).untracked();
     }
 
     /**
      * Output tracked files in the current commit
      * @return
      */
-    static HashSet<String> trackedFiles() {
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        HashMap<String, String> commitFiles = getCurrentCommit().getContents();
+    static HashSet<String> trackedFiles(RepoContext ctx) {
+        StagingIndex index = StagingIndex.get(ctx);
+        HashMap<String, String> stageEntries = index.additions();
+        HashMap<String, String> removalStaged = index.removals();
+        HashMap<String, String> commitFiles = getCurrentCommit(ctx).getContents(ctx);
 
         HashSet<String> lst = new HashSet<>();
         for (String file : stageEntries.keySet()) {
@@ -384,96 +501,232 @@ public class GitUtils {
     }
 
     /**
-     * survey the current working directory to output a list of
-     * modified or deleted but not staged files for log command
-     * @param commit current commit to be compared
-     * @return list of modified files
+     * Stage many files at once: the current commit is read once and the
+     * blobs of the newly staged files are written concurrently. A file
+     * already staged with the same blob is left alone, and one whose blob
+     * is the one in the current commit is unstaged instead.
+     * @param ctx   the repository
+     * @param blobs blobs of the files to stage
      */
+    static void stageAll(RepoContext ctx, List<Blob> blobs) {
+        StagingIndex index = StagingIndex.get(ctx);
+        Commit curCommit = getCurrentCommit(ctx);
+
+        List<Blob> toWrite = new ArrayList<>();
+        for (Blob blob : blobs) {
+            String filename = blob.getName();
+            String hash = blob.getHash();
+            if (hash.equals(index.staged(filename))) {
+                blob.discard();
+                continue;
+            }
+            if (hash.equals(curCommit.blobOf(ctx, filename))) {
+                index.unstage(filename);
+                blob.discard();
+                continue;
+            }
+            index.stage(filename, hash);
+            toWrite.add(blob);
+        }
 
-    static LinkedList<String> modifiedFiles(Commit commit) {
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        HashMap<String, String> commitFiles = commit.getContents();
-        List<String> workingDir = Utils.plainFilenamesIn(CWD);
-
-        LinkedList<String> modified = new LinkedList<>();
+        toWrite.parallelStream().forEach(blob -> writeBlob(ctx, blob));
+    }
 
-        for (String file : commitFiles.keySet()) {
-            if (workingDir.contains(file)) {
-                Blob nowB = new Blob(file);
-                String nowHash = nowB.getHash();
-                if (!nowHash.equals(commitFiles.get(file)) && !stageEntries.containsKey(file)) {
-                    modified.add(file + " (modified)");
-                }
-            } else {
-                if (!removalStaged.containsKey(file)) {
-                    modified.add(file + " (deleted)");
+    /**
+     * Return the files an argument of add stands for: the file itself,
+     * every file below a directory, or the files below the CWD matching
+     * a glob such as "*.txt" or "src/**.java"
+     * @param ctx  the repository
+     * @param path the argument, relative to the CWD
+     * @return paths relative to the CWD; empty if nothing matches
+     */
+    static List<String> expandPath(RepoContext ctx, String path) {
+        File file = join(ctx.cwd, path);
+        List<String> result = new ArrayList<>();
+        if (file.isFile()) {
+            result.add(relativePath(ctx, file));
+        } else if (file.isDirectory()) {
+            String prefix = relativePath(ctx, file);
+            result.addAll(workingFiles(file, prefix.isEmpty() ? "" : prefix + "/"));
+        } else if (path.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+            for (String name : workingFiles(ctx)) {
+                if (matcher.matches(Paths.get(name))) {
+                    result.add(name);
                 }
             }
         }
+        return result;
+    }
 
-        for (String file : stageEntries.keySet()) {
-            if (workingDir.contains(file)) {
-                Blob blob = new Blob(file);
-                String blobH = blob.getHash();
-                if (!blobH.equals(stageEntries.get(file))) {
-                    modified.add(file + " (modified)");
-                }
-            } else {
-                modified.add(file + " (deleted)");
+    /**
+     * Return the path of every file below the CWD, outside .gitlet
+     * @return paths relative to the CWD, separated by '/'
+     */
+    static List<String> workingFiles(RepoContext ctx) {
+        return workingFiles(ctx.cwd, "");
+    }
+
+    private static List<String> workingFiles(File dir, String prefix) {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return result;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = join(dir, name);
+            if (file.isFile()) {
+                result.add(prefix + name);
+            } else if (file.isDirectory() && !(prefix.isEmpty() && name.equals(".gitlet"))) {
+                result.addAll(workingFiles(file, prefix + name + "/"));
             }
         }
+        return result;
+    }
+
+    /** Return the path of FILE relative to the CWD, separated by '/'. */
+    private static String relativePath(RepoContext ctx, File file) {
+        return ctx.cwd.toPath().relativize(file.toPath().toAbsolutePath().normalize()).toString()
+                .replace(File.separatorChar, '/');
+    }
 
-        return modified;
+    /**
+     * Delete a file of the working tree, and the directories it
+     * leaves empty
+     * @param ctx  the repository
+     * @param file path of the file, relative to the CWD
+     */
+    static void deleteWorkingFile(RepoContext ctx, String file) {
+        File loc = join(ctx.cwd, file);
+        if (!loc.isFile()) {
+            return;
+        }
+        loc.delete();
+        for (File dir = loc.getParentFile(); dir != null && !dir.equals(ctx.cwd);
+                dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
 
+    /**
+     * replace/create cwd file with the repo version with the given blobHash
+     * @param ctx    the repository
+     * @param cwdNew cwd file to be written
+     * @param blobH hash of the blob in the repo
+     */
+    static void updateRepoFile(RepoContext ctx, File cwdNew, String blobH) {
+        cwdNew.getParentFile().mkdirs();
+        ObjectCache cache = ctx.cache;
+        byte[] content = cache.getBlob(blobH);
+        if (content == null && cache.fits(blobSize(ctx, blobH))) {
+            content = readBlob(ctx, blobH);
+        }
+        if (content != null) {
+            Utils.writeContents(cwdNew, content);
+        } else {
+            LooseObject.copyTo(openBlob(ctx, blobH), cwdNew);
+        }
     }
 
     /**
-     * Return the staged entries
+     * Write many files of the CWD from their blobs, skipping those that
+     * already hold the right content. Blobs are read, inflated and written
+     * concurrently, one task per file, on the checkout workers of CTX;
+     * the stat cache is updated but not saved.
+     * @param ctx   the repository
+     * @param files blob hash of each file to write, by path
      */
-    static HashMap<String, String> getStage() {
-        HashMap<String, String> stageEntries = Utils.readObject(INDEX, HashMap.class);
-        return stageEntries;
+    static void updateRepoFiles(RepoContext ctx, Map<String, String> files) {
+        StatCache cache = StatCache.get(ctx);
+        if (ctx.checkoutThreads == 1 || files.size() <= 1) {
+            files.forEach((file, blobH) -> materialize(ctx, cache, file, blobH));
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        files.forEach((file, blobH) -> tasks.add(() -> {
+            materialize(ctx, cache, file, blobH);
+            return null;
+        }));
+        try {
+            for (Future<Void> task : ctx.checkoutPool().invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while writing files.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        }
+    }
+
+    /** Write FILE from the blob BLOBH unless it already holds it. */
+    private static void materialize(RepoContext ctx, StatCache cache, String file, String blobH) {
+        File update = join(ctx.cwd, file);
+        if (!update.isFile() || !blobH.equals(cache.hash(file))) {
+            updateRepoFile(ctx, update, blobH);
+            cache.record(file, blobH);
+        }
     }
 
     /**
-     * Return the files that are staged for removal
+     * Get the content of a blob, given the blob hash
+     * @param ctx   the repository
+     * @param blobH Blob Hash
      */
-    static HashMap<String, String> getRemoved() {
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        return removalStaged;
+    static byte[] getBlobContent(RepoContext ctx, String blobH) {
+        byte[] content = ctx.cache.getBlob(blobH);
+        if (content == null) {
+            content = readBlob(ctx, blobH);
+        }
+        return content;
     }
 
     /**
-     * replace/create cwd file with the repo version with the given blobHash
-     * @param cwdNew cwd file to be written
-     * @param blobH hash of the blob in the repo
+     * Read the whole content of a blob, loose or packed, and cache it
+     * @param ctx   the repository
+     * @param blobH Blob Hash
      */
-    static void updateRepoFile(File cwdNew, String blobH) {
-        File retrieve = Utils.join(BLOBS, blobH);
-        Blob b = Utils.readObject(retrieve, Blob.class);
-        Utils.writeContents(cwdNew, b.getContentByte());
+    static byte[] readBlob(RepoContext ctx, String blobH) {
+        File loc = Utils.join(ctx.blobs, blobH);
+        Pack pack = loc.exists() ? null : Pack.find(ctx, blobH);
+        byte[] content = pack != null ? pack.read(blobH) : LooseObject.read(loc);
+        ctx.cache.putBlob(blobH, content);
+        return content;
     }
 
     /**
-     * General command: Stage a file for removal
-     * @param file The name of the file to be removed
-     * @param hash Blob hash of the file
+     * Return the size of the content of a blob, loose or packed
+     * @param ctx   the repository
+     * @param blobH Blob Hash
      */
-    static void stageForRemoval(String file, String hash) {
-        HashMap<String, String> removalStaged = Utils.readObject(INDEX_RM, HashMap.class);
-        removalStaged.put(file, hash);
-        Utils.writeObject(INDEX_RM, removalStaged);
+    static long blobSize(RepoContext ctx, String blobH) {
+        File loc = Utils.join(ctx.blobs, blobH);
+        Pack pack = loc.exists() ? null : Pack.find(ctx, blobH);
+        return pack != null ? pack.size(blobH) : LooseObject.size(loc);
     }
 
     /**
-     * Get the string content of a blob, given the blob hash
+     * Open the content of a blob for reading, whether it is loose or packed
+     * @param ctx   the repository
      * @param blobH Blob Hash
      */
-    static String getBlobContent(String blobH) {
-        File loc = Utils.join(BLOBS, blobH);
-        Blob b = Utils.readObject(loc, Blob.class);
-        return b.getContentString();
+    static InputStream openBlob(RepoContext ctx, String blobH) {
+        File loc = Utils.join(ctx.blobs, blobH);
+        if (!loc.exists()) {
+            Pack pack = Pack.find(ctx, blobH);
+            if (pack != null) {
+                return pack.open(blobH);
+            }
+        }
+        return LooseObject.open(loc);
     }
 
 }
@@ -0,0 +1,351 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/** A gitlet repository rooted at a directory, to be driven in-process.
+ *  Every method runs one command and returns its result; a command that
+ *  fails throws a GitletException whose message is what the command line
+ *  would have printed, and leaves the JVM running.
+ *  Every instance has its own context, so commands on different
+ *  repositories run concurrently; the commands of one instance run one at
+ *  a time. Each command also holds the repository's lock, shared for the
+ *  commands that only read it, so that other instances and other gitlet
+ *  processes working on the same repository wait for it.
+ */
+public class GitletRepository implements AutoCloseable {
+
+    /** Held while a command runs. It is not a monitor, so that a waiting
+     *  thread does not pin a carrier thread when run on virtual threads. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The working directory of the repository. */
+    private final File root;
+
+    /** Paths, caches and open files of the repository. */
+    private final RepoContext ctx;
+
+    /** The commands, working on CTX. */
+    private final Repository repo;
+
+    /**
+     * A repository rooted at the given directory, which need not have
+     * been initialized yet
+     * @param root the working directory of the repository
+     */
+    public GitletRepository(File root) {
+        this.root = root.getAbsoluteFile();
+        this.ctx = new RepoContext(this.root);
+        this.repo = new Repository(ctx);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Whether the root holds a gitlet repository
+     */
+    public boolean isInitialized() {
+        return Utils.join(root, ".gitlet").isDirectory();
+    }
+
+    /**
+     * Create the repository and its initial commit
+     */
+    public void init() {
+        lock.lock();
+        try {
+            transact(() -> {
+                repo.init();
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stage files, directories or globs for addition
+     * @param paths paths relative to the root
+     */
+    public void add(String... paths) {
+        run(false, "add", () -> {
+            repo.add(paths);
+            return null;
+        });
+    }
+
+    /**
+     * Commit the staged changes
+     * @param message the commit message
+     * @return the hash of the new commit
+     */
+    public String commit(String message) {
+        return run(false, "commit", () -> repo.commit(message));
+    }
+
+    /**
+     * Unstage a file, or stage it for removal and delete it
+     * @param file path relative to the root
+     */
+    public void rm(String file) {
+        run(false, "rm", () -> {
+            repo.remove(file);
+            return null;
+        });
+    }
+
+    /**
+     * Return the first-parent history of the current branch, newest first
+     */
+    public List<LogEntry> log() {
+        return run(true, "log", repo::log);
+    }
+
+    /**
+     * Walk the first-parent history of the current branch, newest first,
+     * without reading the commits past where the walk stops
+     * @param maxCount most commits to visit, or -1 for no limit
+     * @param since    stop at the first commit made before this time, in
+     *                 milliseconds since the epoch; Long.MIN_VALUE for none
+     * @param visitor  given each commit; returns false to stop
+     */
+    public void log(int maxCount, long since, Predicate<LogEntry> visitor) {
+        run(true, "log", () -> {
+            repo.log(maxCount, since, visitor);
+            return null;
+        });
+    }
+
+    /**
+     * Return every commit ever made, oldest first
+     */
+    public List<LogEntry> globalLog() {
+        return run(true, "global-log", repo::globall);
+    }
+
+    /**
+     * Walk every commit ever made, oldest first, without reading the
+     * commits themselves
+     * @param visitor given each commit; returns false to stop
+     */
+    public void globalLog(Predicate<LogEntry> visitor) {
+        run(true, "global-log", () -> {
+            repo.globall(visitor);
+            return null;
+        });
+    }
+
+    /**
+     * Return the hashes of the commits with the given message
+     * @param message the message
+     */
+    public List<String> find(String message) {
+        return run(true, "find", () -> repo.find(message));
+    }
+
+    /**
+     * Return the branches, the staging area and the changes in the
+     * working directory
+     */
+    public Status status() {
+        return run(true, "status", repo::status);
+    }
+
+    /**
+     * Write the changes in the working directory that are not staged,
+     * as a unified diff
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the diff goes
+     */
+    public void diff(DiffAlgorithm algorithm, OutputStream out) {
+        run(true, "diff", () -> {
+            repo.diff(algorithm, out);
+            return null;
+        });
+    }
+
+    /**
+     * Write the changes staged for the next commit, as a unified diff
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the diff goes
+     */
+    public void diffCached(DiffAlgorithm algorithm, OutputStream out) {
+        run(true, "diff", () -> {
+            repo.diffCached(algorithm, out);
+            return null;
+        });
+    }
+
+    /**
+     * Write the changes between two commits, as a unified diff
+     * @param from      full or abbreviated hash of the old commit
+     * @param to        full or abbreviated hash of the new commit
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the diff goes
+     */
+    public void diff(String from, String to, DiffAlgorithm algorithm, OutputStream out) {
+        run(true, "diff", () -> {
+            repo.diff(from, to, algorithm, out);
+            return null;
+        });
+    }
+
+    /**
+     * Create a branch at the current commit
+     * @param name the name of the branch
+     */
+    public void branch(String name) {
+        run(false, "branch", () -> {
+            repo.branch(name);
+            return null;
+        });
+    }
+
+    /**
+     * Delete a branch, but not its commits
+     * @param name the name of the branch
+     */
+    public void removeBranch(String name) {
+        run(false, "rm-branch", () -> {
+            repo.removeBranch(name);
+            return null;
+        });
+    }
+
+    /**
+     * Restore a file from the current commit
+     * @param file path relative to the root
+     */
+    public void checkout(String file) {
+        run(false, "checkout", () -> {
+            repo.checkoutCurrent(file);
+            return null;
+        });
+    }
+
+    /**
+     * Restore a file from a commit
+     * @param commit full or abbreviated hash of the commit
+     * @param file   path relative to the root
+     */
+    public void checkout(String commit, String file) {
+        run(false, "checkout", () -> {
+            repo.checkout(file, commit);
+            return null;
+        });
+    }
+
+    /**
+     * Switch to another branch
+     * @param name the name of the branch
+     */
+    public void checkoutBranch(String name) {
+        run(false, "checkout", () -> {
+            repo.checkoutBranch(name);
+            return null;
+        });
+    }
+
+    /**
+     * Move the current branch to a commit and check it out
+     * @param commit full or abbreviated hash of the commit
+     */
+    public void reset(String commit) {
+        run(false, "reset", () -> {
+            repo.reset(commit);
+            return null;
+        });
+    }
+
+    /**
+     * Merge a branch into the current one
+     * @param branch the name of the branch
+     */
+    public MergeResult merge(String branch) {
+        return run(false, "merge", () -> repo.merge(branch));
+    }
+
+    /**
+     * Pack all loose objects into a single pack file
+     */
+    public void pack() {
+        run(false, "pack", () -> {
+            repo.pack();
+            return null;
+        });
+    }
+
+    /**
+     * Rewrite blobs written by older versions in the current format
+     */
+    public void migrate() {
+        run(false, "migrate", () -> {
+            repo.migrate();
+            return null;
+        });
+    }
+
+    /**
+     * Close the pack files of the repository; they are opened again by
+     * the next command that needs them
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            ctx.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run a command of an initialized repository, holding its lock
+     * @param shared  whether the command only reads .gitlet
+     * @param name    name of the command
+     * @param command the command
+     */
+    private <T> T run(boolean shared, String name, Supplier<T> command) {
+        lock.lock();
+        try {
+            if (!isInitialized()) {
+                throw Utils.error("Not in an initialized Gitlet directory.");
+            }
+            RepoLock repoLock = RepoLock.acquire(ctx, shared, name);
+            if (shared && ctx.journal.isLeftOver()) {
+                // Only a command holding the lock alone may finish the
+                // transaction of one that crashed.
+                repoLock.close();
+                repoLock = RepoLock.acquire(ctx, false, name);
+            }
+            try {
+                return transact(command);
+            } finally {
+                repoLock.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Run a command in a transaction, so that either everything it
+     *  writes to .gitlet is applied or, if it fails, nothing is. */
+    private <T> T transact(Supplier<T> command) {
+        ctx.begin();
+        T result;
+        try {
+            result = command.get();
+        } catch (RuntimeException | Error excp) {
+            ctx.abort();
+            throw excp;
+        }
+        ctx.commit();
+        return result;
+    }
+}
@@ -0,0 +1,440 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** A write-ahead journal making the updates of one command atomic.
+ *  While a transaction is open, the commit and tree objects and the state
+ *  files a command writes are only kept in memory. On commit they are all
+ *  written to .gitlet/journal, which is synced to disk once; only then is
+ *  every file replaced, each through a temporary file renamed over it, and
+ *  the journal deleted. A journal left behind by a crash is applied again
+ *  before the next command if it is complete, and discarded otherwise, so
+ *  that either every file of the command changes or none does.
+ *  A transaction may also write some bytes in the middle of a file,
+ *  which is then changed in place once the files written whole have been
+ *  replaced; such a write is idempotent, so applying it again after a
+ *  crash is harmless.
+ *  The journal is a magic number, a version and the number of entries,
+ *  then for each entry its path relative to .gitlet, whether it deletes
+ *  the file, writes it whole or writes part of it, the offset of a partial
+ *  write and the new content, and finally the CRC-32 of everything before
+ *  it. Version 1 journals, which have no partial writes, are still read.
+ */
+class Journal {
+
+    /** "GJNL", the first four bytes of a journal. */
+    private static final int MAGIC = 0x474a4e4c;
+
+    /** Version of the journal format. */
+    private static final int VERSION = 2;
+
+    /** Kinds of journal entries. */
+    private static final byte DELETE = 0;
+    private static final byte WRITE = 1;
+    private static final byte PATCH = 2;
+
+    /** The .gitlet directory, which every journaled file is below. */
+    private final File dir;
+
+    /** The journal file. */
+    private final File file;
+
+    /** New content of each file written in the open transaction, null if
+     *  it is deleted; null when no transaction is open. */
+    private LinkedHashMap<File, byte[]> pending;
+
+    /** Partial writes of the open transaction, in order. */
+    private final List<Patch> patches = new ArrayList<>();
+
+    /** Work to do when the open transaction is about to be applied. */
+    private final List<Runnable> beforeCommit = new ArrayList<>();
+
+    /** Work to do once the open transaction is applied. */
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    /** Bytes written at an offset of a file that is otherwise unchanged. */
+    private static class Patch {
+        private final File dest;
+        private final long offset;
+        private final byte[] content;
+
+        Patch(File dest, long offset, byte[] content) {
+            this.dest = dest;
+            this.offset = offset;
+            this.content = content;
+        }
+    }
+
+    /**
+     * The journal of a repository
+     * @param dir the .gitlet directory
+     */
+    Journal(File dir) {
+        this.dir = dir;
+        this.file = Utils.join(dir, "journal");
+    }
+
+    /**
+     * Open a transaction
+     */
+    synchronized void begin() {
+        pending = new LinkedHashMap<>();
+        patches.clear();
+        beforeCommit.clear();
+        afterCommit.clear();
+    }
+
+    /**
+     * Whether a command that crashed left its journal behind
+     */
+    boolean isLeftOver() {
+        return file.exists();
+    }
+
+    /**
+     * Whether a transaction is open
+     */
+    synchronized boolean isOpen() {
+        return pending != null;
+    }
+
+    /**
+     * Write a file, in the open transaction if there is one and at once
+     * otherwise
+     * @param dest    the file
+     * @param content its new content
+     */
+    synchronized void write(File dest, byte[] content) {
+        if (pending != null) {
+            pending.put(dest, content);
+            patches.removeIf(patch -> patch.dest.equals(dest));
+        } else {
+            replace(dest, content);
+        }
+    }
+
+    /**
+     * Write bytes over part of a file, in the open transaction if there
+     * is one and at once otherwise. The file must exist, or be written
+     * whole by the transaction, and be at least OFFSET bytes long; bytes
+     * past its end extend it.
+     * @param dest    the file
+     * @param offset  where the bytes go
+     * @param content the bytes
+     */
+    synchronized void patch(File dest, long offset, byte[] content) {
+        if (pending == null) {
+            patch(new Patch(dest, offset, content));
+        } else if (pending.get(dest) != null) {
+            byte[] whole = pending.get(dest);
+            if (whole.length < offset + content.length) {
+                whole = Arrays.copyOf(whole, (int) offset + content.length);
+                pending.put(dest, whole);
+            }
+            System.arraycopy(content, 0, whole, (int) offset, content.length);
+        } else {
+            patches.add(new Patch(dest, offset, content.clone()));
+        }
+    }
+
+    /**
+     * Delete a file, in the open transaction if there is one and at once
+     * otherwise
+     * @param dest the file
+     */
+    synchronized void delete(File dest) {
+        if (pending != null) {
+            pending.put(dest, null);
+            patches.removeIf(patch -> patch.dest.equals(dest));
+        } else {
+            dest.delete();
+        }
+    }
+
+    /**
+     * Whether a file is written or deleted by the open transaction
+     * @param dest the file
+     */
+    synchronized boolean isPending(File dest) {
+        return pending != null && pending.containsKey(dest);
+    }
+
+    /**
+     * Return the length a file will have once the open transaction is
+     * applied, 0 if it won't exist
+     * @param dest the file
+     */
+    synchronized long length(File dest) {
+        if (pending != null && pending.containsKey(dest)) {
+            byte[] content = pending.get(dest);
+            return content == null ? 0 : content.length;
+        }
+        long length = dest.length();
+        for (Patch patch : patches) {
+            if (patch.dest.equals(dest)) {
+                length = Math.max(length, patch.offset + patch.content.length);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Return the content a file is given by the open transaction, or null
+     * if the transaction doesn't write it
+     * @param dest the file
+     */
+    synchronized byte[] pending(File dest) {
+        return pending == null ? null : pending.get(dest);
+    }
+
+    /**
+     * Run some work when the open transaction is about to be applied, or
+     * at once if there is none; the work may still write files in the
+     * transaction. It is dropped if the transaction is aborted.
+     * @param work the work
+     */
+    void beforeCommit(Runnable work) {
+        synchronized (this) {
+            if (pending != null) {
+                beforeCommit.add(work);
+                return;
+            }
+        }
+        work.run();
+    }
+
+    /**
+     * Run some work once the open transaction is applied, or at once if
+     * there is none. It is dropped if the transaction is aborted.
+     * @param work the work
+     */
+    void afterCommit(Runnable work) {
+        synchronized (this) {
+            if (pending != null) {
+                afterCommit.add(work);
+                return;
+            }
+        }
+        work.run();
+    }
+
+    /**
+     * Apply the open transaction and close it
+     */
+    void commit() {
+        List<Runnable> before;
+        synchronized (this) {
+            before = new ArrayList<>(beforeCommit);
+            beforeCommit.clear();
+        }
+        before.forEach(Runnable::run);
+
+        LinkedHashMap<File, byte[]> writes;
+        List<Patch> partial;
+        List<Runnable> work;
+        synchronized (this) {
+            writes = pending;
+            partial = new ArrayList<>(patches);
+            work = new ArrayList<>(afterCommit);
+            pending = null;
+            patches.clear();
+            afterCommit.clear();
+        }
+        if (writes == null || writes.isEmpty() && partial.isEmpty()) {
+            work.forEach(Runnable::run);
+            return;
+        }
+
+        byte[] journal = encode(writes, partial);
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(journal);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        apply(writes, partial);
+        work.forEach(Runnable::run);
+        file.delete();
+    }
+
+    /**
+     * Close the open transaction without writing anything
+     */
+    synchronized void abort() {
+        pending = null;
+        patches.clear();
+        beforeCommit.clear();
+        afterCommit.clear();
+    }
+
+    /**
+     * Finish the transaction of a command that crashed: apply its journal
+     * if it was completely written, and discard it otherwise
+     * @return whether a journal was applied
+     */
+    boolean recover() {
+        if (!file.exists()) {
+            return false;
+        }
+        LinkedHashMap<File, byte[]> writes = new LinkedHashMap<>();
+        List<Patch> partial = new ArrayList<>();
+        boolean complete = decode(Utils.readContents(file), writes, partial);
+        if (complete) {
+            apply(writes, partial);
+        }
+        file.delete();
+        return complete;
+    }
+
+    /**
+     * Replace the content of a file at once, through a temporary file in
+     * the same directory renamed over it, so that a reader never sees it
+     * half written
+     * @param dest    the file
+     * @param content its new content
+     */
+    static void replace(File dest, byte[] content) {
+        File parent = dest.getParentFile();
+        parent.mkdirs();
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, parent);
+            Files.write(tmp.toPath(), content);
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write PATCH over part of its file. */
+    private static void patch(Patch patch) {
+        try (FileChannel out = FileChannel.open(patch.dest.toPath(),
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(patch.content);
+            long at = patch.offset;
+            while (buf.hasRemaining()) {
+                at += out.write(buf, at);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void apply(Map<File, byte[]> writes, List<Patch> partial) {
+        for (Map.Entry<File, byte[]> entry : writes.entrySet()) {
+            if (entry.getValue() == null) {
+                entry.getKey().delete();
+            } else {
+                replace(entry.getKey(), entry.getValue());
+            }
+        }
+        partial.forEach(Journal::patch);
+    }
+
+    private byte[] encode(Map<File, byte[]> writes, List<Patch> partial) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(writes.size() + partial.size());
+            for (Map.Entry<File, byte[]> entry : writes.entrySet()) {
+                out.writeUTF(relative(entry.getKey()));
+                out.writeByte(entry.getValue() == null ? DELETE : WRITE);
+                if (entry.getValue() != null) {
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            for (Patch patch : partial) {
+                out.writeUTF(relative(patch.dest));
+                out.writeByte(PATCH);
+                out.writeLong(patch.offset);
+                out.writeInt(patch.content.length);
+                out.write(patch.content);
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the path of DEST relative to .gitlet, as the journal has it. */
+    private String relative(File dest) {
+        return dir.toPath().relativize(dest.toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /** Read the whole-file writes of JOURNAL into WRITES and its partial
+     *  writes into PARTIAL; return false if it is torn. */
+    private boolean decode(byte[] journal, Map<File, byte[]> writes, List<Patch> partial) {
+        if (journal.length < Long.BYTES) {
+            return false;
+        }
+        int end = journal.length - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(journal, 0, end);
+        if (ByteBuffer.wrap(journal, end, Long.BYTES).getLong() != crc.getValue()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(journal, 0, end))) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                return false;
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                File dest = Utils.join(dir, in.readUTF());
+                byte kind = in.readByte();
+                long offset = kind == PATCH ? in.readLong() : 0;
+                byte[] content = null;
+                if (kind != DELETE) {
+                    content = new byte[in.readInt()];
+                    in.readFully(content);
+                }
+                if (kind == PATCH) {
+                    partial.add(new Patch(dest, offset, content));
+                } else {
+                    writes.put(dest, content);
+                }
+            }
+        } catch (EOFException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+}
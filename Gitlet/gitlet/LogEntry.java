@@ -0,0 +1,58 @@
+package gitlet;
+
+/** One commit as shown by log, global-log and the API. */
+public final class LogEntry {
+
+    /** The hash of the commit. */
+    private final String hash;
+
+    /** The hash of its first parent, or null for the initial commit. */
+    private final String parent;
+
+    /** The hash of its merge parent, or null if it isn't a merge. */
+    private final String mergeParent;
+
+    /** The time at which the commit was made. */
+    private final String time;
+
+    /** The message of the commit. */
+    private final String message;
+
+    LogEntry(Commit commit) {
+        this(commit.getHash(), commit.getParent(),
+                commit.isMerge() ? commit.getMergeParent() : null,
+                commit.getTime(), commit.getMessage());
+    }
+
+    LogEntry(String hash, String parent, String mergeParent, String time, String message) {
+        this.hash = hash;
+        this.parent = parent;
+        this.mergeParent = mergeParent;
+        this.time = time;
+        this.message = message;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public String getMergeParent() {
+        return mergeParent;
+    }
+
+    public boolean isMerge() {
+        return mergeParent != null;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** How log writes each commit: in the default layout, with its hash,
+ *  merge parents, date and message on lines of their own after a "==="
+ *  line, or on one line following a template. In a template %H and %h
+ *  stand for the full and abbreviated hash, %P and %p for the parents,
+ *  %ad for the date, %s for the message, %n for a newline and %% for a
+ *  percent sign; anything else is copied as it is.
+ */
+class LogFormat {
+
+    /** Length of an abbreviated hash. */
+    private static final int ABBREV = 7;
+
+    /** The layout log has always used. */
+    static final LogFormat DEFAULT = new LogFormat(null);
+
+    /** The abbreviated hash and the message. */
+    static final LogFormat ONELINE = new LogFormat("%h %s");
+
+    /** The template, or null for the default layout. */
+    private final String template;
+
+    private LogFormat(String template) {
+        this.template = template;
+    }
+
+    /** Return the format writing TEMPLATE, then a newline, per commit. */
+    static LogFormat template(String template) {
+        return new LogFormat(template);
+    }
+
+    /**
+     * Write one commit
+     * @param entry the commit
+     * @param out   where it goes
+     */
+    void write(LogEntry entry, Writer out) throws IOException {
+        if (template == null) {
+            out.write("===\ncommit ");
+            out.write(entry.getHash());
+            out.write('\n');
+            if (entry.isMerge()) {
+                out.write("Merge: " + abbrev(entry.getParent()) + " "
+                        + abbrev(entry.getMergeParent()) + "\n");
+            }
+            out.write("Date: " + entry.getTime() + "\n");
+            out.write(entry.getMessage());
+            out.write("\n\n");
+            return;
+        }
+
+        int length = template.length();
+        for (int i = 0; i < length; i++) {
+            char c = template.charAt(i);
+            if (c != '%' || i + 1 == length) {
+                out.write(c);
+                continue;
+            }
+            char next = template.charAt(i + 1);
+            i++;
+            switch (next) {
+                case 'H':
+                    out.write(entry.getHash());
+                    break;
+                case 'h':
+                    out.write(abbrev(entry.getHash()));
+                    break;
+                case 'P':
+                    out.write(parents(entry, false));
+                    break;
+                case 'p':
+                    out.write(parents(entry, true));
+                    break;
+                case 's':
+                    out.write(entry.getMessage());
+                    break;
+                case 'n':
+                    out.write('\n');
+                    break;
+                case '%':
+                    out.write('%');
+                    break;
+                case 'a':
+                    if (i + 1 < length && template.charAt(i + 1) == 'd') {
+                        out.write(entry.getTime());
+                        i++;
+                        break;
+                    }
+                    out.write("%a");
+                    break;
+                default:
+                    out.write(c);
+                    out.write(next);
+            }
+        }
+        out.write('\n');
+    }
+
+    /** Return the parents of ENTRY separated by a space, abbreviated if
+     *  ABBREVIATED; empty for the initial commit. */
+    private static String parents(LogEntry entry, boolean abbreviated) {
+        if (entry.getParent() == null) {
+            return "";
+        }
+        String parent = abbreviated ? abbrev(entry.getParent()) : entry.getParent();
+        if (!entry.isMerge()) {
+            return parent;
+        }
+        String merge = abbreviated ? abbrev(entry.getMergeParent()) : entry.getMergeParent();
+        return parent + " " + merge;
+    }
+
+    private static String abbrev(String hash) {
+        return hash.substring(0, ABBREV);
+    }
+}
@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Reading and writing of object files in .gitlet/objects/blobs.
+ *  An object file is a small header (magic, type, encoding and content
+ *  length) followed by the deflate-compressed content, which is streamed
+ *  in and out through file channels and a fixed-size buffer. Object files
+ *  written by older versions (uncompressed, or a serialized Blob) are
+ *  still readable and can be rewritten with {@link #upgrade}.
+ */
+class LooseObject {
+
+    /** "GLOB", the first four bytes of every object file. */
+    private static final int MAGIC = 0x474c4f42;
+
+    /** First two bytes of a Java serialization stream. */
+    private static final int SERIAL_MAGIC = 0xaced;
+
+    /** Size of the header: magic, type, encoding and length. */
+    private static final int HEADER_SIZE = 14;
+
+    /** Type of blob objects. */
+    static final byte BLOB = 'b';
+
+    /** Encoding of content stored as is. */
+    private static final byte STORED = 0;
+
+    /** Encoding of deflate-compressed content. */
+    private static final byte DEFLATED = 1;
+
+    /**
+     * Compress SOURCE into a new temporary object file in DIR, handing
+     * every chunk read to SEEN on the way, so that whatever is computed
+     * from the content comes from the same single read as what is stored.
+     * The file is put in place with {@link #install}.
+     * @param dir    directory of the object file
+     * @param type   type of the object
+     * @param source file holding the content
+     * @param seen   given each chunk read, positioned at its start
+     * @return the temporary object file
+     */
+    static File compress(File dir, byte type, File source, Consumer<ByteBuffer> seen) {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return compress(dir, type, in, seen);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Rename the temporary object file TMP to DEST unless DEST already
+     * exists, in which case TMP is dropped: an object file is never
+     * rewritten once it is in place.
+     * @param tmp  file returned by {@link #compress}
+     * @param dest the object file
+     */
+    static void install(File tmp, File dest) {
+        try {
+            if (!dest.exists()) {
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Compress everything read from IN into a new temporary object file
+     * in DIR. The length in the header is filled in once IN is exhausted.
+     * @param dir  directory of the object file
+     * @param type type of the object
+     * @param in   channel holding the content
+     * @param seen given each chunk read, or null
+     * @return the temporary object file
+     */
+    private static File compress(File dir, byte type, ReadableByteChannel in,
+                                 Consumer<ByteBuffer> seen) throws IOException {
+        File tmp = File.createTempFile("tmp-", null, dir);
+        Deflater deflater = new Deflater();
+        boolean done = false;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put(type).put(DEFLATED).putLong(0).flip();
+            writeFully(out, header);
+
+            long length = 0;
+            ByteBuffer input = ByteBuffer.allocate(Blob.BUFFER_SIZE);
+            ByteBuffer output = ByteBuffer.allocate(Blob.BUFFER_SIZE);
+            while (in.read(input) >= 0) {
+                input.flip();
+                length += input.remaining();
+                if (seen != null) {
+                    seen.accept(input.duplicate());
+                }
+                deflater.setInput(input);
+                while (!deflater.needsInput()) {
+                    drain(deflater, output, out);
+                }
+                input.clear();
+            }
+            // The deflater still refers to INPUT; leave it empty.
+            input.flip();
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(deflater, output, out);
+            }
+
+            ByteBuffer size = ByteBuffer.allocate(8).putLong(length).flip();
+            while (size.hasRemaining()) {
+                out.write(size, 6 + size.position());
+            }
+            done = true;
+            return tmp;
+        } finally {
+            deflater.end();
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Open the content of an object file for reading
+     * @param file the object file
+     * @return stream over the uncompressed content
+     */
+    static InputStream open(File file) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            header.flip();
+
+            if (header.remaining() == HEADER_SIZE && header.getInt(0) == MAGIC) {
+                byte encoding = header.get(5);
+                InputStream in = Channels.newInputStream(channel);
+                if (encoding == DEFLATED) {
+                    return new InflaterInputStream(in, new Inflater(), Blob.BUFFER_SIZE);
+                } else if (encoding == STORED) {
+                    return in;
+                }
+                in.close();
+                throw Utils.error("Unknown object encoding %d.", encoding);
+            } else if (header.remaining() >= 2
+                    && (header.getShort(0) & 0xffff) == SERIAL_MAGIC) {
+                channel.position(0);
+                try (ObjectInputStream legacy = new ObjectInputStream(
+                        Channels.newInputStream(channel))) {
+                    Blob blob = (Blob) legacy.readObject();
+                    return new ByteArrayInputStream(blob.getContentByte());
+                }
+            }
+            channel.close();
+            throw Utils.error("Corrupt object file %s.", file.getName());
+        } catch (IOException | ClassNotFoundException | ClassCastException excp) {
+            closeQuietly(channel);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the length of the content of an object file
+     * @param file the object file
+     */
+    static long size(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            if (header.position() == HEADER_SIZE && header.getInt(0) == MAGIC) {
+                return header.getLong(6);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (InputStream in = open(file)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the whole content of an object file
+     * @param file the object file
+     */
+    static byte[] read(File file) {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the content of an object file to DEST, creating or
+     * overwriting it as needed
+     * @param file the object file
+     * @param dest file to write
+     */
+    static void copyTo(File file, File dest) {
+        copyTo(open(file), dest);
+    }
+
+    /**
+     * Write everything read from IN to DEST, creating or overwriting it
+     * as needed, and close IN
+     * @param content stream over the content
+     * @param dest    file to write
+     */
+    static void copyTo(InputStream content, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (ReadableByteChannel in = Channels.newChannel(content);
+             FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(Blob.BUFFER_SIZE);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                writeFully(out, buf);
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite an object file written by an older version in the
+     * current compressed format. The original is read where it is and
+     * only replaced, atomically, by a complete compressed copy
+     * @param file the object file
+     * @param type type of the object
+     * @return true if the file was rewritten
+     */
+    static boolean upgrade(File file, byte type) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            if (header.position() == HEADER_SIZE && header.getInt(0) == MAGIC
+                    && header.get(5) == DEFLATED) {
+                return false;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        File tmp = null;
+        try (ReadableByteChannel in = Channels.newChannel(open(file))) {
+            tmp = compress(file.getParentFile(), type, in, null);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Deflate the pending input of DEFLATER into OUT through BUF. */
+    private static void drain(Deflater deflater, ByteBuffer buf,
+                              FileChannel out) throws IOException {
+        deflater.deflate(buf);
+        buf.flip();
+        writeFully(out, buf);
+        buf.clear();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                // Already failing; the original error is more useful.
+            }
+        }
+    }
+}
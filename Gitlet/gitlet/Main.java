@@ -1,123 +1,355 @@
 package gitlet;
 
-import java.util.Date;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
+ *  It parses the command line, runs the command through a
+ *  GitletRepository rooted at the CWD and prints the result.
  *  @author Anna (Yutong) Zhang
  */
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        if (args.length > 0 && Daemon.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /** Run the command in ARGS in this process on the repository in the
+     *  CWD, printing the message of the command's error if it fails. */
+    static void run(String[] args) {
+        run(args, new GitletRepository(new File(System.getProperty("user.dir"))));
+    }
+
+    /** Run the command in ARGS on REPO, printing the message of the
+     *  command's error if it fails. */
+    static void run(String[] args, GitletRepository repo) {
+        try {
+            dispatch(args, repo);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    private static void dispatch(String[] args, GitletRepository repo) {
 
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
 
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
                 validateArgs(args, 1);
-                Repository.init();
+                repo.init();
                 break;
             case "add":
-                checkGitInit();
-                validateArgs(args, 2);
-                Repository.add(args[1]);
+                checkGitInit(repo);
+                validateMinArgs(args, 2);
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.commit(args[1]);
+                repo.commit(args[1]);
                 break;
             case "rm":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.remove(args[1]);
+                repo.rm(args[1]);
                 break;
             case "log":
-                checkGitInit();
-                validateArgs(args, 1);
-                Repository.log();
+                checkGitInit(repo);
+                printLog(args, repo);
                 break;
             case "global-log":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 1);
-                Repository.globall();
+                printGlobalLog(repo);
                 break;
             case "find":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.find(args[1]);
+                for (String hash : repo.find(args[1])) {
+                    System.out.println(hash);
+                }
                 break;
             case "status":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 1);
-                Repository.status();
+                printStatus(repo.status());
+                break;
+            case "diff":
+                checkGitInit(repo);
+                printDiff(args, repo);
                 break;
             case "checkout":
-                checkGitInit();
+                checkGitInit(repo);
                 if (args.length == 4) {
                     if (!args[2].equals("--")) {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw Utils.error("Incorrect operands.");
                     }
-                    Repository.checkout(args[3], args[1]);
+                    repo.checkout(args[1], args[3]);
                 } else if (args.length == 3) {
                     if (!args[1].equals("--")) {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw Utils.error("Incorrect operands.");
                     }
-                    Repository.checkoutCurrent(args[2]);
+                    repo.checkout(args[2]);
                 } else if (args.length == 2) {
-                    Repository.checkoutBranch(args[1]);
+                    repo.checkoutBranch(args[1]);
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw Utils.error("Incorrect operands.");
                 }
                 break;
             case "branch":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.branch(args[1]);
+                repo.branch(args[1]);
                 break;
             case "rm-branch":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.removeBranch(args[1]);
+                repo.removeBranch(args[1]);
                 break;
             case "reset":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.reset(args[1]);
+                repo.reset(args[1]);
                 break;
             case "merge":
-                checkGitInit();
+                checkGitInit(repo);
                 validateArgs(args, 2);
-                Repository.merge(args[1]);
+                printMerge(repo.merge(args[1]));
+                break;
+            case "pack":
+                checkGitInit(repo);
+                validateArgs(args, 1);
+                repo.pack();
+                break;
+            case "migrate":
+                checkGitInit(repo);
+                validateArgs(args, 1);
+                repo.migrate();
+                break;
+            case "daemon":
+                checkGitInit(repo);
+                validateArgs(args, 1);
+                if (Daemon.isServing()) {
+                    throw Utils.error("A gitlet daemon is already running.");
+                }
+                Daemon.serve(repo);
+                break;
+            case "daemon-stop":
+                checkGitInit(repo);
+                validateArgs(args, 1);
+                System.out.println("No gitlet daemon is running.");
                 break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw Utils.error("No command with that name exists.");
         }
 
         return;
     }
 
+    /** Run global-log, writing each commit as it is read from the
+     *  commit log. */
+    private static void printGlobalLog(GitletRepository repo) {
+        Writer out = logWriter();
+        try {
+            repo.globalLog(entry -> printEntry(LogFormat.DEFAULT, entry, out));
+        } finally {
+            flush(out);
+        }
+    }
+
+    /** Run log, whose ARGS may limit it with -n N or --max-count=N and
+     *  --since=DATE, DATE being a day or a day and a time, and choose its
+     *  format with --oneline or --format=TEMPLATE. Each commit is written
+     *  as soon as it is read, and the walk stops once nothing reads the
+     *  output anymore, such as when it is piped to head. */
+    private static void printLog(String[] args, GitletRepository repo) {
+        int maxCount = -1;
+        long since = Long.MIN_VALUE;
+        LogFormat format = LogFormat.DEFAULT;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-n") && i + 1 < args.length) {
+                maxCount = parseCount(args[++i]);
+            } else if (arg.startsWith("--max-count=")) {
+                maxCount = parseCount(arg.substring("--max-count=".length()));
+            } else if (arg.startsWith("--since=")) {
+                since = parseTime(arg.substring("--since=".length()));
+            } else if (arg.equals("--oneline")) {
+                format = LogFormat.ONELINE;
+            } else if (arg.startsWith("--format=")) {
+                format = LogFormat.template(arg.substring("--format=".length()));
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+
+        LogFormat chosen = format;
+        Writer out = logWriter();
+        try {
+            repo.log(maxCount, since, entry -> printEntry(chosen, entry, out));
+        } finally {
+            flush(out);
+        }
+    }
+
+    /** Return a buffered writer to standard output for log. */
+    private static Writer logWriter() {
+        return new BufferedWriter(new OutputStreamWriter(System.out), Blob.BUFFER_SIZE);
+    }
+
+    /** Write ENTRY to OUT in FORMAT, returning whether standard output
+     *  still takes more. */
+    private static boolean printEntry(LogFormat format, LogEntry entry, Writer out) {
+        try {
+            format.write(entry, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return !System.out.checkError();
+    }
+
+    private static void flush(Writer out) {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the count of -n or --max-count in ARG. */
+    private static int parseCount(String arg) {
+        try {
+            int count = Integer.parseInt(arg);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            // Reported below.
+        }
+        throw Utils.error("Incorrect operands.");
+    }
+
+    /** Return the time of --since in ARG, yyyy-MM-dd or yyyy-MM-dd
+     *  HH:mm:ss in the local time zone, in milliseconds since the epoch. */
+    private static long parseTime(String arg) {
+        try {
+            LocalDateTime time = arg.length() > "yyyy-MM-dd".length()
+                    ? LocalDateTime.parse(arg.replace(' ', 'T'))
+                    : LocalDate.parse(arg).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    private static void printStatus(Status status) {
+        System.out.println("=== Branches ===");
+        for (String b : status.getBranches()) {
+            if (b.equals(status.getCurrentBranch())) {
+                System.out.print("*");
+            }
+            System.out.println(b);
+        }
+        System.out.println("");
+
+        printSection("=== Staged Files ===", status.getStaged());
+        printSection("=== Removed Files ===", status.getRemoved());
+        printSection("=== Modifications Not Staged For Commit ===", status.getModified());
+        printSection("=== Untracked Files ===", status.getUntracked());
+    }
+
+    private static void printSection(String header, List<String> lines) {
+        System.out.println(header);
+        for (String s : lines) {
+            System.out.println(s);
+        }
+        System.out.println("");
+    }
+
+    /** Run diff, whose ARGS are no commit, to compare the working
+     *  directory with the staging area, --cached, to compare the staging
+     *  area with the current commit, or two commits, and optionally
+     *  --histogram to use that algorithm. */
+    private static void printDiff(String[] args, GitletRepository repo) {
+        DiffAlgorithm algorithm = DiffAlgorithm.MYERS;
+        boolean cached = false;
+        List<String> commits = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--histogram")) {
+                algorithm = DiffAlgorithm.HISTOGRAM;
+            } else if (args[i].equals("--cached")) {
+                cached = true;
+            } else {
+                commits.add(args[i]);
+            }
+        }
+
+        BufferedOutputStream out = new BufferedOutputStream(System.out, Blob.BUFFER_SIZE);
+        try {
+            if (commits.isEmpty() && cached) {
+                repo.diffCached(algorithm, out);
+            } else if (commits.isEmpty()) {
+                repo.diff(algorithm, out);
+            } else if (commits.size() == 2 && !cached) {
+                repo.diff(commits.get(0), commits.get(1), algorithm, out);
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        } finally {
+            try {
+                out.flush();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    private static void printMerge(MergeResult result) {
+        if (result.getOutcome() == MergeResult.Outcome.UP_TO_DATE) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+        } else if (result.getOutcome() == MergeResult.Outcome.FAST_FORWARD) {
+            System.out.println("Current branch fast-forwarded.");
+        } else if (result.hasConflicts()) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+
     private static void validateArgs(String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    private static void validateMinArgs(String[] args, int n) {
+        if (args.length < n) {
+            throw Utils.error("Incorrect operands.");
         }
     }
 
-    private static void checkGitInit() {
-        if (!GitUtils.isInited()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+    private static void checkGitInit(GitletRepository repo) {
+        if (!repo.isInitialized()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
 
     }
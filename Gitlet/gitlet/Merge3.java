@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** A three-way merge of the lines of a file, in the manner of diff3.
+ *  Both sides are diffed against the version of the split point; where
+ *  only one side changed some lines of the base its change is taken, and
+ *  where both changed the same lines, or lines next to each other, the
+ *  two versions are written between conflict markers, unless they are
+ *  the same. The lines both versions of a conflict start or end with are
+ *  moved out of it, so that the markers surround only what differs.
+ *  The merged file is written line by line to a stream straight from the
+ *  three blobs, never built in memory.
+ */
+class Merge3 {
+
+    /** The conflict markers. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The three versions. */
+    private final Diff.Text base;
+    private final Diff.Text ours;
+    private final Diff.Text theirs;
+
+    /** Where the merged file goes. */
+    private final OutputStream out;
+
+    /** Whether a conflict was written. */
+    private boolean conflicted;
+
+    private Merge3(Diff.Text base, Diff.Text ours, Diff.Text theirs, OutputStream out) {
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+        this.out = out;
+    }
+
+    /**
+     * Merge two versions of a file
+     * @param base   content of the file at the split point, empty if it
+     *               didn't exist then
+     * @param ours   content in the current branch
+     * @param theirs content in the given branch
+     * @param out    where the merged file is written
+     * @return whether the merge left a conflict
+     */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        Diff.Text[] texts = Diff.split(base, ours, theirs);
+        Merge3 merge = new Merge3(texts[0], texts[1], texts[2], out);
+        merge.run();
+        return merge.conflicted;
+    }
+
+    /**
+     * Write a conflict between two whole versions of a file, one of
+     * which may be empty, such as when one side deleted the file
+     * @param ours   content in the current branch
+     * @param theirs content in the given branch
+     * @param out    where the file is written
+     */
+    static void conflict(byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        out.write(OURS);
+        writeSide(out, ours, 0, ours.length);
+        out.write(SEPARATOR);
+        writeSide(out, theirs, 0, theirs.length);
+        out.write(THEIRS);
+    }
+
+    /** Merge the whole file, walking the changes of both sides in the
+     *  order of the base lines they replace. */
+    private void run() throws IOException {
+        List<Diff.Edit> oursEdits = Diff.diff(base, ours);
+        List<Diff.Edit> theirsEdits = Diff.diff(base, theirs);
+        int i = 0;
+        int j = 0;
+        // Lines of the base before POS have been written; from there the
+        // side versions are shifted by OURSDELTA and THEIRSDELTA lines.
+        int pos = 0;
+        int oursDelta = 0;
+        int theirsDelta = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            int start = Math.min(
+                    i < oursEdits.size() ? oursEdits.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirsEdits.size() ? theirsEdits.get(j).aStart : Integer.MAX_VALUE);
+            write(base, pos, start);
+
+            // Gather the changes of both sides that overlap or touch.
+            int end = start;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            int oursShift = oursDelta;
+            int theirsShift = theirsDelta;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < oursEdits.size() && oursEdits.get(i).aStart <= end) {
+                    Diff.Edit edit = oursEdits.get(i++);
+                    end = Math.max(end, edit.aEnd);
+                    oursShift += (edit.bEnd - edit.bStart) - (edit.aEnd - edit.aStart);
+                    oursChanged = true;
+                    grew = true;
+                }
+                while (j < theirsEdits.size() && theirsEdits.get(j).aStart <= end) {
+                    Diff.Edit edit = theirsEdits.get(j++);
+                    end = Math.max(end, edit.aEnd);
+                    theirsShift += (edit.bEnd - edit.bStart) - (edit.aEnd - edit.aStart);
+                    theirsChanged = true;
+                    grew = true;
+                }
+            }
+
+            int oursStart = start + oursDelta;
+            int oursEnd = end + oursShift;
+            int theirsStart = start + theirsDelta;
+            int theirsEnd = end + theirsShift;
+            if (!theirsChanged) {
+                write(ours, oursStart, oursEnd);
+            } else if (!oursChanged) {
+                write(theirs, theirsStart, theirsEnd);
+            } else {
+                conflict(oursStart, oursEnd, theirsStart, theirsEnd);
+            }
+            pos = end;
+            oursDelta = oursShift;
+            theirsDelta = theirsShift;
+        }
+        write(base, pos, base.size());
+    }
+
+    /** Write lines [oursStart, oursEnd) of OURS and [theirsStart,
+     *  theirsEnd) of THEIRS as a conflict, leaving out of the markers
+     *  the lines both start and end with; nothing is left if they are
+     *  the same. */
+    private void conflict(int oursStart, int oursEnd, int theirsStart, int theirsEnd)
+            throws IOException {
+        int from = oursStart;
+        while (oursStart < oursEnd && theirsStart < theirsEnd
+                && ours.ids[oursStart] == theirs.ids[theirsStart]) {
+            oursStart++;
+            theirsStart++;
+        }
+        int suffix = 0;
+        while (oursStart < oursEnd - suffix && theirsStart < theirsEnd - suffix
+                && ours.ids[oursEnd - suffix - 1] == theirs.ids[theirsEnd - suffix - 1]) {
+            suffix++;
+        }
+        write(ours, from, oursStart);
+        if (oursStart < oursEnd - suffix || theirsStart < theirsEnd - suffix) {
+            conflicted = true;
+            out.write(OURS);
+            writeSide(out, ours.content, ours.start[oursStart], ours.start[oursEnd - suffix]);
+            out.write(SEPARATOR);
+            writeSide(out, theirs.content, theirs.start[theirsStart],
+                    theirs.start[theirsEnd - suffix]);
+            out.write(THEIRS);
+        }
+        write(ours, oursEnd - suffix, oursEnd);
+    }
+
+    /** Write bytes [from, to) of CONTENT inside a conflict, ending them
+     *  with a newline so that the next marker starts a line. */
+    private static void writeSide(OutputStream out, byte[] content, int from, int to)
+            throws IOException {
+        out.write(content, from, to - from);
+        if (to > from && content[to - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+
+    /** Write lines [from, to) of TEXT. */
+    private void write(Diff.Text text, int from, int to) throws IOException {
+        if (from < to) {
+            out.write(text.content, text.start[from], text.start[to] - text.start[from]);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+
+/** What a merge did. */
+public final class MergeResult {
+
+    /** The ways a merge can end. */
+    public enum Outcome {
+        /** The given branch was already an ancestor; nothing changed. */
+        UP_TO_DATE,
+        /** The current branch was moved to the given branch. */
+        FAST_FORWARD,
+        /** A merge commit was made. */
+        MERGED
+    }
+
+    /** How the merge ended. */
+    private final Outcome outcome;
+
+    /** The head of the current branch after the merge. */
+    private final String head;
+
+    /** Files committed with conflict markers, sorted. */
+    private final List<String> conflicts;
+
+    MergeResult(Outcome outcome, String head, List<String> conflicts) {
+        this.outcome = outcome;
+        this.head = head;
+        this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public String getHead() {
+        return head;
+    }
+
+    public List<String> getConflicts() {
+        return conflicts;
+    }
+
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+}
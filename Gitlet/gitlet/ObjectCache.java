@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded, size-aware LRU cache of the commits, trees and blob contents
+ *  read during a command, so that the same object is never read from disk
+ *  twice while it fits. Objects are immutable once written, so entries
+ *  never need to be invalidated.
+ *  Each repository context has its own cache, whose capacity in bytes is
+ *  taken from the gitlet.cache.bytes system property; setting
+ *  gitlet.cache.stats prints the hit and miss counts of every cache to
+ *  standard error when the JVM exits.
+ */
+class ObjectCache {
+
+    /** Default capacity in bytes. */
+    private static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /** Rough size of a commit, not counting its file entries. */
+    private static final int COMMIT_WEIGHT = 256;
+
+    /** Rough size of one entry of a commit's contents. */
+    private static final int ENTRY_WEIGHT = 160;
+
+    /** Cached objects, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Capacity in bytes. */
+    private final long capacity;
+
+    /** Estimated size of all entries in bytes. */
+    private long size;
+
+    /** Number of lookups that found their object. */
+    private long hits;
+
+    /** Number of lookups that did not. */
+    private long misses;
+
+    private ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create the object cache of a repository
+     */
+    static ObjectCache create() {
+        ObjectCache cache = new ObjectCache(Long.getLong("gitlet.cache.bytes", DEFAULT_CAPACITY));
+        if (System.getProperty("gitlet.cache.stats") != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> System.err.println(cache.stats())));
+        }
+        return cache;
+    }
+
+    /**
+     * Return the cached commit with the given hash, or null
+     * @param hash hash of the commit
+     */
+    synchronized Commit getCommit(String hash) {
+        Object value = lookup(hash);
+        return value instanceof Commit ? (Commit) value : null;
+    }
+
+    /**
+     * Return the cached tree with the given hash, or null
+     * @param hash hash of the tree
+     */
+    synchronized Tree getTree(String hash) {
+        Object value = lookup(hash);
+        return value instanceof Tree ? (Tree) value : null;
+    }
+
+    /**
+     * Return the cached content of the blob with the given hash, or null
+     * @param hash hash of the blob
+     */
+    synchronized byte[] getBlob(String hash) {
+        Object value = lookup(hash);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    /**
+     * Cache a commit
+     * @param commit the commit
+     */
+    synchronized void putCommit(Commit commit) {
+        put(commit.getHash(), commit,
+                COMMIT_WEIGHT + (long) ENTRY_WEIGHT * commit.entryCount());
+    }
+
+    /**
+     * Cache a tree
+     * @param tree the tree
+     */
+    synchronized void putTree(Tree tree) {
+        put(tree.getHash(), tree, COMMIT_WEIGHT + (long) ENTRY_WEIGHT * tree.size());
+    }
+
+    /**
+     * Cache the content of a blob
+     * @param hash    hash of the blob
+     * @param content the content
+     */
+    synchronized void putBlob(String hash, byte[] content) {
+        put(hash, content, content.length);
+    }
+
+    /**
+     * Whether a blob of the given size is worth caching at all, rather
+     * than being streamed
+     * @param length size of the blob
+     */
+    boolean fits(long length) {
+        return length <= capacity / 8;
+    }
+
+    /**
+     * Return the hit and miss counts
+     */
+    synchronized String stats() {
+        return String.format("object cache: %d hits, %d misses, %d objects, %d/%d bytes",
+                hits, misses, entries.size(), size, capacity);
+    }
+
+    private Object lookup(String hash) {
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    private void put(String hash, Object value, long weight) {
+        if (weight > capacity || entries.containsKey(hash)) {
+            return;
+        }
+        entries.put(hash, new Entry(value, weight));
+        size += weight;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().getValue().weight;
+            it.remove();
+        }
+    }
+
+    /** A cached object and the size it was accounted for. */
+    private static class Entry {
+        private final Object value;
+        private final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
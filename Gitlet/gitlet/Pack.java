@@ -0,0 +1,675 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A pack of commits, trees and blobs in .gitlet/objects/pack.
+ *  pack-NAME.pack holds the objects one after the other, each one being
+ *  a type byte, the uncompressed length, the offset of its base for
+ *  deltas, the compressed length and the deflated content.
+ *  pack-NAME.idx is read through a memory mapping. After its header comes
+ *  a fanout table of 256 cumulative counts (entry B is the number of
+ *  objects whose hash starts with a byte at most B), then the sorted raw
+ *  hashes, the type of each object and its offset in the pack. A full or
+ *  abbreviated hash is found by a binary search within its fanout bucket,
+ *  without allocating anything.
+ */
+class Pack {
+
+    /** Type of commit objects. */
+    static final byte COMMIT = 1;
+
+    /** Type of blob objects. */
+    static final byte BLOB = 2;
+
+    /** Type of blobs stored as a delta against another blob. */
+    private static final byte DELTA = 3;
+
+    /** Type of tree objects. */
+    static final byte TREE = 4;
+
+    /** "GPAK", the first four bytes of a pack. */
+    private static final int PACK_MAGIC = 0x4750414b;
+
+    /** "GIDX", the first four bytes of a pack index. */
+    private static final int IDX_MAGIC = 0x47494458;
+
+    /** Version of the pack format. */
+    private static final int VERSION = 1;
+
+    /** Version of the index format. Version 1 indexes had no fanout
+     * table and no types; they are converted in memory when loaded. */
+    private static final int IDX_VERSION = 2;
+
+    /** Number of entries in the fanout table. */
+    private static final int FANOUT = 256;
+
+    /** Offset of the fanout table in an index. */
+    private static final int FANOUT_AT = 12;
+
+    /** Offset of the sorted hashes in an index. */
+    private static final int HASHES_AT = FANOUT_AT + 4 * FANOUT;
+
+    /** Size of a raw SHA-1 hash. */
+    private static final int HASH_BYTES = RawHash.BYTES;
+
+    /** Number of preceding blobs each blob is tried against as a delta base. */
+    private static final int WINDOW = 10;
+
+    /** Longest chain of deltas a blob may sit at the end of. */
+    private static final int MAX_DEPTH = 10;
+
+    /** Compressed bytes read to find the result length of a delta. */
+    private static final int DELTA_PROBE = 64;
+
+    /** Blobs larger than this are never deltified, only streamed. */
+    private static final long DELTA_LIMIT = 16 * 1024 * 1024;
+
+    /** The pack file. */
+    private final File packFile;
+
+    /** The index file. */
+    private final File idxFile;
+
+    /** The index, mapped into memory. */
+    private final ByteBuffer index;
+
+    /** Number of objects in the pack. */
+    private final int count;
+
+    /** Offset of the types of the objects in INDEX. */
+    private final int typesAt;
+
+    /** Offset of the offsets of the objects in INDEX. */
+    private final int offsetsAt;
+
+    /** Channel over the pack file, opened on first read. */
+    private FileChannel channel;
+
+    private Pack(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = Utils.join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel in = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (mapped.limit() < FANOUT_AT || mapped.getInt(0) != IDX_MAGIC) {
+                throw Utils.error("Corrupt pack index %s.", name);
+            }
+            int version = mapped.getInt(4);
+            if (version == 1) {
+                mapped = upgradeIndex(mapped);
+            } else if (version != IDX_VERSION) {
+                throw Utils.error("Unknown pack index version %d.", version);
+            }
+            index = mapped;
+            count = index.getInt(8);
+            typesAt = HASHES_AT + count * HASH_BYTES;
+            offsetsAt = typesAt + count;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return all the packs of the repository
+     */
+    static List<Pack> all(RepoContext ctx) {
+        synchronized (ctx) {
+            if (ctx.loadedPacks != null) {
+                return ctx.loadedPacks;
+            }
+            List<Pack> packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(ctx.packs);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new Pack(Utils.join(ctx.packs, name)));
+                    }
+                }
+            }
+            ctx.loadedPacks = packs;
+            return packs;
+        }
+    }
+
+    /**
+     * Forget the packs loaded so far, closing their files
+     */
+    static void unload(RepoContext ctx) {
+        synchronized (ctx) {
+            if (ctx.loadedPacks == null) {
+                return;
+            }
+            for (Pack pack : ctx.loadedPacks) {
+                pack.close();
+            }
+            ctx.loadedPacks = null;
+        }
+    }
+
+    /**
+     * Return the pack holding the object with the given hash, or null
+     * @param ctx  the repository
+     * @param hash hash of the object
+     */
+    static Pack find(RepoContext ctx, String hash) {
+        for (Pack pack : all(ctx)) {
+            if (pack.indexOf(hash) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the hashes of all the objects in this pack
+     */
+    List<String> objects() {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(hashAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Return the type (COMMIT, TREE or BLOB) of an object in this pack
+     * @param hash hash of the object
+     */
+    byte typeOf(String hash) {
+        int i = indexOf(hash);
+        if (i < 0) {
+            throw Utils.error("Object %s is not in %s.", hash, packFile.getName());
+        }
+        return index.get(typesAt + i);
+    }
+
+    /**
+     * Return the length of the content of an object in this pack
+     * @param hash hash of the object
+     */
+    long size(String hash) {
+        Header header = header(offsetOf(hash));
+        if (header.type != DELTA) {
+            return header.length;
+        }
+        // A delta starts with the length of its result, so only its first
+        // few bytes are inflated.
+        try (InputStream in = inflate(header, DELTA_PROBE)) {
+            return Delta.resultLength(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the content of an object in this pack
+     * @param hash hash of the object
+     */
+    byte[] read(String hash) {
+        return readAt(offsetOf(hash), 0);
+    }
+
+    /**
+     * Open the content of an object in this pack for reading, without
+     * loading it whole unless it is stored as a delta
+     * @param hash hash of the object
+     */
+    InputStream open(String hash) {
+        long offset = offsetOf(hash);
+        Header header = header(offset);
+        if (header.type == DELTA) {
+            return new ByteArrayInputStream(readAt(offset, 0));
+        }
+        return inflate(header);
+    }
+
+    /**
+     * Write every given commit, tree and blob into a single new pack.
+     * Blobs that are close to another blob of the same file are stored as
+     * deltas against it.
+     * @param ctx       the repository
+     * @param commits   hashes of the commits
+     * @param trees     hashes of the trees
+     * @param blobs     hashes of the blobs
+     * @param blobNames name of the file each blob was last seen as
+     * @param source    where to read the objects from
+     * @return the index file of the new pack
+     */
+    static File write(RepoContext ctx, List<String> commits, List<String> trees,
+                      List<String> blobs, Map<String, String> blobNames, ObjectSource source) {
+        ctx.packs.mkdirs();
+        int count = commits.size() + trees.size() + blobs.size();
+        byte[] allHashes = new byte[count * HASH_BYTES];
+        long[] allOffsets = new long[count];
+
+        List<String> ordered = new ArrayList<>(blobs);
+        HashMap<String, Long> sizes = new HashMap<>();
+        for (String blob : blobs) {
+            sizes.put(blob, source.size(blob));
+        }
+        // Same file together, largest version first, as git does.
+        ordered.sort((a, b) -> {
+            int byName = blobNames.getOrDefault(a, "").compareTo(blobNames.getOrDefault(b, ""));
+            return byName != 0 ? byName : Long.compare(sizes.get(b), sizes.get(a));
+        });
+
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, ctx.packs);
+            HashMap<String, Long> written = new HashMap<>();
+            HashMap<String, Byte> types = new HashMap<>();
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(12);
+                header.putInt(PACK_MAGIC).putInt(VERSION).putInt(count).flip();
+                writeFully(out, header);
+
+                for (String commit : commits) {
+                    written.put(commit, out.position());
+                    types.put(commit, COMMIT);
+                    writeEntry(out, COMMIT, 0, source.read(commit));
+                }
+                for (String tree : trees) {
+                    written.put(tree, out.position());
+                    types.put(tree, TREE);
+                    writeEntry(out, TREE, 0, source.read(tree));
+                }
+
+                Deque<Candidate> window = new ArrayDeque<>();
+                for (String blob : ordered) {
+                    long offset = out.position();
+                    written.put(blob, offset);
+                    types.put(blob, BLOB);
+                    if (sizes.get(blob) > DELTA_LIMIT) {
+                        try (InputStream in = source.open(blob)) {
+                            writeEntry(out, BLOB, sizes.get(blob), in);
+                        }
+                        continue;
+                    }
+
+                    byte[] content = source.read(blob);
+                    Candidate best = null;
+                    byte[] bestDelta = null;
+                    for (Candidate base : window) {
+                        if (base.depth >= MAX_DEPTH) {
+                            continue;
+                        }
+                        byte[] delta = Delta.create(base.content, content);
+                        if (delta.length < content.length / 2
+                                && (bestDelta == null || delta.length < bestDelta.length)) {
+                            best = base;
+                            bestDelta = delta;
+                        }
+                    }
+
+                    Candidate self = new Candidate();
+                    self.content = content;
+                    self.offset = offset;
+                    if (best != null) {
+                        writeEntry(out, DELTA, best.offset, bestDelta);
+                        self.depth = best.depth + 1;
+                    } else {
+                        writeEntry(out, BLOB, 0, content);
+                    }
+                    window.addFirst(self);
+                    if (window.size() > WINDOW) {
+                        window.removeLast();
+                    }
+                }
+                out.force(true);
+            }
+
+            String[] sorted = written.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            byte[] allTypes = new byte[count];
+            for (int i = 0; i < sorted.length; i++) {
+                RawHash.put(allHashes, i * HASH_BYTES, sorted[i]);
+                allTypes[i] = types.get(sorted[i]);
+                allOffsets[i] = written.get(sorted[i]);
+            }
+            String name = "pack-" + Utils.sha1(allHashes);
+            File packFile = Utils.join(ctx.packs, name + ".pack");
+            Files.move(tmp.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            File idx = Utils.join(ctx.packs, name + ".idx");
+            writeIndex(idx, allHashes, allTypes, allOffsets);
+            synchronized (ctx) {
+                ctx.loadedPacks = null;
+            }
+            return idx;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Return the index file of this pack
+     */
+    File getIndexFile() {
+        return idxFile;
+    }
+
+    /**
+     * Delete this pack and its index
+     */
+    void delete() {
+        close();
+        idxFile.delete();
+        packFile.delete();
+    }
+
+    /** Where the objects going into a new pack are read from. */
+    interface ObjectSource {
+        /** Return the uncompressed size of the object HASH. */
+        long size(String hash);
+
+        /** Return the content of the object HASH. */
+        byte[] read(String hash);
+
+        /** Open the content of the object HASH for reading. */
+        InputStream open(String hash);
+    }
+
+    /** A blob that later blobs may be stored as deltas against. */
+    private static class Candidate {
+        private byte[] content;
+        private long offset;
+        private int depth;
+    }
+
+    /** The header of an object in the pack. */
+    private static class Header {
+        private byte type;
+        private long length;
+        private long base;
+        private long compressed;
+        /** Offset of the compressed content. */
+        private long data;
+    }
+
+    /** Size of an object header in the pack. */
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 8;
+
+    /** Return the position of HASH in the index, or -1. */
+    private int indexOf(String hash) {
+        if (hash.length() != 2 * HASH_BYTES) {
+            return -1;
+        }
+        int i = lowerBound(hash);
+        return i < count && compareAt(i, hash) == 0 ? i : -1;
+    }
+
+    /** Return the first position whose hash is not less than the
+     *  hexadecimal PREFIX, looking only within its fanout bucket. */
+    private int lowerBound(String prefix) {
+        int first;
+        int last;
+        if (prefix.length() >= 2) {
+            first = Character.digit(prefix.charAt(0), 16) * 16
+                    + Character.digit(prefix.charAt(1), 16);
+            last = first;
+        } else {
+            first = Character.digit(prefix.charAt(0), 16) * 16;
+            last = first + 15;
+        }
+        int lo = first == 0 ? 0 : index.getInt(FANOUT_AT + 4 * (first - 1));
+        int hi = index.getInt(FANOUT_AT + 4 * last);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the hash at position I with the hexadecimal KEY, over
+     *  as many hexadecimal digits as KEY has. */
+    private int compareAt(int i, String key) {
+        return RawHash.compare(index, HASHES_AT + i * HASH_BYTES, key);
+    }
+
+    private String hashAt(int i) {
+        return RawHash.toHex(index, HASHES_AT + i * HASH_BYTES);
+    }
+
+    private long offsetOf(String hash) {
+        int i = indexOf(hash);
+        if (i < 0) {
+            throw Utils.error("Object %s is not in %s.", hash, packFile.getName());
+        }
+        return index.getLong(offsetsAt + 8 * i);
+    }
+
+    /** Convert a version 1 index (hash and offset pairs) to the current
+     *  layout, reading the types from the pack. */
+    private ByteBuffer upgradeIndex(ByteBuffer old) {
+        int n = old.getInt(8);
+        byte[] hashes = new byte[n * HASH_BYTES];
+        byte[] types = new byte[n];
+        long[] offsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            int at = FANOUT_AT + i * (HASH_BYTES + 8);
+            old.get(at, hashes, i * HASH_BYTES, HASH_BYTES);
+            offsets[i] = old.getLong(at + HASH_BYTES);
+            byte type = header(offsets[i]).type;
+            types[i] = type == DELTA ? BLOB : type;
+        }
+        return ByteBuffer.wrap(indexBytes(hashes, types, offsets));
+    }
+
+    private byte[] readAt(long offset, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw Utils.error("Delta chain too long in %s.", packFile.getName());
+        }
+        Header header = header(offset);
+        try (InputStream in = inflate(header)) {
+            byte[] data = in.readAllBytes();
+            if (header.type == DELTA) {
+                return Delta.apply(readAt(header.base, depth + 1), data);
+            }
+            return data;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private Header header(long offset) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(buf, offset);
+        buf.flip();
+        Header header = new Header();
+        header.type = buf.get();
+        header.length = buf.getLong();
+        header.base = buf.getLong();
+        header.compressed = buf.getLong();
+        header.data = offset + HEADER_SIZE;
+        return header;
+    }
+
+    private InputStream inflate(Header header) {
+        return inflate(header, Blob.BUFFER_SIZE);
+    }
+
+    /** Return the content of HEADER's object, reading the pack BUFFER
+     *  compressed bytes at a time. */
+    private InputStream inflate(Header header, int buffer) {
+        return new InflaterInputStream(new RegionInputStream(header.data, header.compressed),
+                new Inflater(), buffer);
+    }
+
+    private void readFully(ByteBuffer buf, long position) {
+        try {
+            while (buf.hasRemaining()) {
+                if (channel().read(buf, position + buf.position()) < 0) {
+                    throw Utils.error("Truncated pack %s.", packFile.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    private synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                // Nothing left to read from it anyway.
+            }
+            channel = null;
+        }
+    }
+
+    /** Reads LENGTH bytes of the pack starting at a given offset, with
+     *  positional reads so that several streams can share the channel. */
+    private class RegionInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        RegionInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = channel().read(buf, position);
+            if (n < 0) {
+                return -1;
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /** Write an object whose whole content is in memory. */
+    private static void writeEntry(FileChannel out, byte type, long base,
+                                   byte[] content) throws IOException {
+        writeEntry(out, type, base, content.length, new ByteArrayInputStream(content));
+    }
+
+    /** Write a blob of LENGTH bytes streamed from IN. */
+    private static void writeEntry(FileChannel out, byte type, long length,
+                                   InputStream in) throws IOException {
+        writeEntry(out, type, 0, length, in);
+    }
+
+    private static void writeEntry(FileChannel out, byte type, long base, long length,
+                                   InputStream in) throws IOException {
+        long start = out.position();
+        out.position(start + HEADER_SIZE);
+        Deflater deflater = new Deflater();
+        OutputStream sink = Channels.newOutputStream(out);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(
+                new NonClosingOutputStream(sink), deflater, Blob.BUFFER_SIZE)) {
+            in.transferTo(deflated);
+        } finally {
+            deflater.end();
+        }
+        long end = out.position();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(type).putLong(length).putLong(base).putLong(end - start - HEADER_SIZE).flip();
+        while (header.hasRemaining()) {
+            out.write(header, start + header.position());
+        }
+    }
+
+    private static void writeIndex(File file, byte[] hashes, byte[] types,
+                                   long[] offsets) throws IOException {
+        File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+        Files.write(tmp.toPath(), indexBytes(hashes, types, offsets));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Lay out an index for the sorted HASHES with their TYPES and OFFSETS. */
+    private static byte[] indexBytes(byte[] hashes, byte[] types, long[] offsets) {
+        int n = offsets.length;
+        ByteBuffer out = ByteBuffer.allocate(HASHES_AT + n * (HASH_BYTES + 1 + 8));
+        out.putInt(IDX_MAGIC).putInt(IDX_VERSION).putInt(n);
+        int[] fanout = new int[FANOUT];
+        for (int i = 0; i < n; i++) {
+            fanout[hashes[i * HASH_BYTES] & 0xff]++;
+        }
+        for (int b = 0, total = 0; b < FANOUT; b++) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        out.put(hashes).put(types);
+        for (long offset : offsets) {
+            out.putLong(offset);
+        }
+        return out.array();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Keeps DeflaterOutputStream.close() from closing the pack channel. */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
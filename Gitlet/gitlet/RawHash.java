@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+
+/** Helpers for the 20-byte binary form of SHA-1 hashes used by the
+ *  on-disk indexes, which compare and convert hashes in place instead of
+ *  allocating byte arrays.
+ */
+class RawHash {
+
+    /** Size of a raw SHA-1 hash. */
+    static final int BYTES = 20;
+
+    /**
+     * Compare the raw hash at AT in BUF with the hexadecimal KEY, over as
+     * many hexadecimal digits as KEY has
+     * @return negative, zero or positive as the hash is less than, starts
+     *         with or is greater than KEY
+     */
+    static int compare(ByteBuffer buf, int at, String key) {
+        for (int k = 0; k < key.length(); k++) {
+            int b = buf.get(at + k / 2) & 0xff;
+            int digit = k % 2 == 0 ? b >>> 4 : b & 0xf;
+            int cmp = digit - Character.digit(key.charAt(k), 16);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the raw hash at AT in BUF as hexadecimal
+     */
+    static String toHex(ByteBuffer buf, int at) {
+        StringBuilder result = new StringBuilder(2 * BYTES);
+        for (int k = 0; k < BYTES; k++) {
+            int b = buf.get(at + k) & 0xff;
+            result.append(Character.forDigit(b >>> 4, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Put the raw form of the hexadecimal HASH into OUT
+     */
+    static void put(ByteBuffer out, String hash) {
+        for (int i = 0; i < BYTES; i++) {
+            out.put((byte) ((Character.digit(hash.charAt(2 * i), 16) << 4)
+                    | Character.digit(hash.charAt(2 * i + 1), 16)));
+        }
+    }
+
+    /**
+     * Put the raw form of the hexadecimal HASH into DEST at OFF
+     */
+    static void put(byte[] dest, int off, String hash) {
+        for (int i = 0; i < BYTES; i++) {
+            dest[off + i] = (byte) ((Character.digit(hash.charAt(2 * i), 16) << 4)
+                    | Character.digit(hash.charAt(2 * i + 1), 16));
+        }
+    }
+
+    /**
+     * Return the first 8 bytes of the hexadecimal HASH as a long
+     */
+    static long head(String hash) {
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            value = (value << 4) | Character.digit(hash.charAt(i), 16);
+        }
+        return value;
+    }
+
+    /**
+     * Whether S is a non-empty lowercase hexadecimal string of at most
+     * the length of a full hash
+     */
+    static boolean isPrefix(String s) {
+        if (s.isEmpty() || s.length() > 2 * BYTES) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
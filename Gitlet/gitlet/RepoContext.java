@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gitlet.Utils.join;
+
+/** Everything gitlet knows about one repository: the paths of its working
+ *  directory and .gitlet files, and the objects, state files, packs and
+ *  commit graph it has read from them. Every command is given the context
+ *  of the repository it works on, so one process can work on any number
+ *  of repositories at once; nothing is shared between two contexts.
+ *  A context expects the commands run on it to run one at a time.
+ */
+class RepoContext {
+    /** The working directory, where the repository is rooted. */
+    final File cwd;
+    /** The .gitlet directory. */
+    final File gitletDir;
+
+    final File objects;
+    final File commits;
+    final File blobs;
+    final File trees;
+    final File packs;
+
+    final File index;
+    final File indexRm;
+    final File indexStat;
+    final File localHead;
+    final File bitmaps;
+    final File head;
+    final File commitList;
+    final File commitLog;
+    final File commitIndex;
+    final File commitGraph;
+    final File branchList;
+    final File lock;
+
+    /** Commits, trees and blob contents read so far. */
+    final ObjectCache cache = ObjectCache.create();
+
+    /** The journal the objects and state files of a command go through. */
+    final Journal journal;
+
+    /** State files read or written so far. */
+    final StateCache state;
+
+    /** The staging area, once mapped by StagingIndex.get. */
+    StagingIndex stagingIndex;
+
+    /** The stat cache, once loaded by StatCache.get. */
+    StatCache statCache;
+
+    /** The packs, once listed by Pack.all; null when they may have changed. */
+    List<Pack> loadedPacks;
+
+    /** The mapped commit graph, or null if it changed since it was mapped. */
+    ByteBuffer graph;
+
+    /** Number of workers checkout writes files on: gitlet.checkout.threads,
+     *  one per processor by default. */
+    final int checkoutThreads = Math.max(1, Integer.getInteger("gitlet.checkout.threads",
+            Runtime.getRuntime().availableProcessors()));
+
+    /** The checkout workers, once started by checkoutPool. */
+    private ExecutorService checkoutPool;
+
+    /**
+     * The context of the repository rooted at a directory, which need
+     * not have been initialized yet
+     * @param root the working directory of the repository
+     */
+    RepoContext(File root) {
+        cwd = root.getAbsoluteFile();
+        gitletDir = join(cwd, ".gitlet");
+        objects = join(gitletDir, "objects");
+        commits = join(objects, "commits");
+        blobs = join(objects, "blobs");
+        trees = join(objects, "trees");
+        packs = join(objects, "pack");
+        index = join(gitletDir, "INDEX");
+        indexRm = join(gitletDir, "INDEX_RM");
+        indexStat = join(gitletDir, "INDEX_STAT");
+        localHead = join(gitletDir, "refs", "heads");
+        bitmaps = join(gitletDir, "refs", "bitmaps");
+        head = join(gitletDir, "HEAD");
+        commitList = join(gitletDir, "commitList");
+        commitLog = join(gitletDir, "commitLog");
+        commitIndex = join(gitletDir, "commitIndex");
+        commitGraph = join(gitletDir, "commitGraph");
+        branchList = join(gitletDir, "branchList");
+        lock = join(gitletDir, "lock");
+        journal = new Journal(gitletDir);
+        state = new StateCache(journal);
+    }
+
+    /**
+     * Start the transaction of a command, first finishing the one of a
+     * command that crashed. If that one is applied, the commit index,
+     * commit graph and branch bitmaps may lack its commit, so they are
+     * dropped to be rebuilt when next needed.
+     */
+    void begin() {
+        if (journal.recover()) {
+            commitIndex.delete();
+            commitGraph.delete();
+            BranchBitmaps.clear(this);
+            synchronized (this) {
+                graph = null;
+            }
+        }
+        journal.begin();
+    }
+
+    /**
+     * Apply everything the command wrote
+     */
+    void commit() {
+        journal.commit();
+    }
+
+    /**
+     * Drop everything the command wrote, after it failed
+     */
+    void abort() {
+        state.discard();
+        synchronized (this) {
+            stagingIndex = null;
+        }
+        journal.abort();
+    }
+
+    /**
+     * Return the pool of checkoutThreads workers checkout writes files
+     * on, starting it the first time. Its threads are daemons, so an
+     * idle pool never keeps the JVM alive.
+     */
+    synchronized ExecutorService checkoutPool() {
+        if (checkoutPool == null) {
+            checkoutPool = Executors.newFixedThreadPool(checkoutThreads, task -> {
+                Thread thread = new Thread(task, "gitlet-checkout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return checkoutPool;
+    }
+
+    /**
+     * Close the pack files, drop the commit graph and stop the checkout
+     * workers; they are opened again when next needed
+     */
+    void close() {
+        Pack.unload(this);
+        synchronized (this) {
+            graph = null;
+            if (checkoutPool != null) {
+                checkoutPool.shutdown();
+                checkoutPool = null;
+            }
+        }
+    }
+}
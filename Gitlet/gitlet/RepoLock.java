@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/** A lock on a whole repository, held by every command while it runs:
+ *  shared by the commands that only read .gitlet, and alone by those that
+ *  change it, so that gitlet processes running at the same time never
+ *  interleave their read-modify-write cycles.
+ *  It is a FileChannel lock on .gitlet/lock. The OS drops it when its
+ *  process dies, so a crashed command can't leave the repository locked;
+ *  the journal finishes or discards what it left half done. A command that
+ *  can't get the lock retries with a growing backoff for up to
+ *  gitlet.lock.timeout milliseconds (10 seconds by default), then fails.
+ *  An exclusive holder writes its process id and command into the file,
+ *  so that a command that gives up can tell who holds the lock, and whether
+ *  that process still exists. If it doesn't, the lock is stale: it is held
+ *  by a file system that didn't release it, such as a network one.
+ */
+class RepoLock implements AutoCloseable {
+
+    /** Default time to wait for the lock, in milliseconds. */
+    private static final long DEFAULT_TIMEOUT = 10_000;
+
+    /** Longest pause between two attempts, in milliseconds. */
+    private static final long MAX_BACKOFF = 50;
+
+    /** The lock file, open while the lock is held. */
+    private final FileChannel channel;
+
+    /** The lock. */
+    private final FileLock lock;
+
+    private RepoLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Lock a repository, waiting for the commands holding it
+     * @param ctx     the repository
+     * @param shared  whether the command only reads the repository
+     * @param command name of the command, recorded by exclusive holders
+     * @return the lock, to be closed when the command is done
+     */
+    static RepoLock acquire(RepoContext ctx, boolean shared, String command) {
+        long timeout = Long.getLong("gitlet.lock.timeout", DEFAULT_TIMEOUT);
+        long deadline = System.nanoTime() + timeout * 1_000_000;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(ctx.lock.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long backoff = 1;
+            while (true) {
+                FileLock lock = tryLock(channel, shared);
+                if (lock != null) {
+                    // Whatever the file says was left by an exclusive holder
+                    // that died, since no process can hold it alone now.
+                    channel.truncate(0);
+                    if (!shared) {
+                        String owner = ProcessHandle.current().pid() + " " + command + "\n";
+                        channel.write(ByteBuffer.wrap(owner.getBytes(StandardCharsets.UTF_8)), 0);
+                    }
+                    return new RepoLock(channel, lock);
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    throw Utils.error(busyMessage(channel));
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        } catch (IOException excp) {
+            close(channel);
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            close(channel);
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while waiting for the repository lock.");
+        } catch (RuntimeException excp) {
+            close(channel);
+            throw excp;
+        }
+    }
+
+    /** Release the lock. */
+    @Override
+    public void close() {
+        try {
+            if (!lock.isShared()) {
+                channel.truncate(0);
+            }
+            lock.release();
+        } catch (IOException excp) {
+            // Closing the channel below releases the lock anyway.
+        } finally {
+            close(channel);
+        }
+    }
+
+    /** Return the lock if it could be taken at once, or null. The lock of
+     *  another GitletRepository of this process counts as busy too. */
+    private static FileLock tryLock(FileChannel channel, boolean shared) throws IOException {
+        try {
+            return channel.tryLock(0, Long.MAX_VALUE, shared);
+        } catch (OverlappingFileLockException excp) {
+            return null;
+        }
+    }
+
+    /** Return the error of a command that gave up waiting for the lock. */
+    private static String busyMessage(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        channel.read(buf, 0);
+        String[] owner = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8)
+                .trim().split(" ", 2);
+        if (owner.length < 2) {
+            return "Another gitlet process is using this repository.";
+        }
+        boolean alive;
+        try {
+            alive = ProcessHandle.of(Long.parseLong(owner[0])).map(ProcessHandle::isAlive)
+                    .orElse(false);
+        } catch (NumberFormatException excp) {
+            return "Another gitlet process is using this repository.";
+        }
+        if (!alive) {
+            return String.format("The repository is locked by process %s (%s), which has "
+                    + "exited; the lock is stale.", owner[0], owner[1]);
+        }
+        return String.format("Another gitlet process (pid %s, running %s) is using this "
+                + "repository.", owner[0], owner[1]);
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            // Nothing more can be done about it.
+        }
+    }
+}
@@ -1,112 +1,117 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.Serializable;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
 /** Represents a gitlet repository.
- *  This class contains all the command methods and their helpers
+ *  This class contains all the command methods and their helpers,
+ *  working on the repository of one context
  *
  *  @author Anna (Yutong) Zhang
  */
-public class Repository implements Serializable {
+public class Repository {
     /**
      * List all instance variables of the Repository class here with a useful
      * comment above them describing what that variable represents and how that
      * variable is used. We've provided two examples for you.
      */
 
+    /** The repository the commands work on. */
+    private final RepoContext ctx;
 
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
-
-    /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
-
-    private static final int COMMIT_LENGTH = 40;
+    /**
+     * The commands of the repository with the given context
+     * @param ctx the repository
+     */
+    Repository(RepoContext ctx) {
+        this.ctx = ctx;
+    }
 
     /**
      * At this point, we haven't initialized the Gitlet repository, just a class that
      * may initialize it later
      */
-    static void initRepository() {
-        GitUtils.setDirectory();
+    void initRepository() {
+        GitUtils.setDirectory(ctx);
     }
 
     /**
      * Init should create a gitlet repository if one doesn't exist.
      * And should create a new commit to put in it
      */
-    static void init() {
+    void init() {
 
-        if (GitUtils.isInited()) {
+        if (GitUtils.isInited(ctx)) {
             String e = "A Gitlet version-control system "
                     + "already exists in the current directory.";
-            System.out.println(e);
-            System.exit(0);
+            throw Utils.error(e);
         } else {
             initRepository();
             Commit initCommit = new Commit();
-            GitUtils.writeCommit(initCommit);
-            GitUtils.addCommit(initCommit.getHash());
-            GitUtils.addBranch("master");
+            GitUtils.writeCommit(ctx, initCommit);
+            GitUtils.addCommit(ctx, initCommit.getHash());
+            GitUtils.addBranch(ctx, "master");
         }
     }
 
     /**
-     * This is the add function for the gitlet class.
-     * @param file name
+     * This is the add function for the gitlet class. Every argument may
+     * be a file, a directory or a glob; all the files they stand for are
+     * hashed in parallel and staged together.
+     * @param paths names of the files to add
      */
-    static void add(String file) {
-        File named = Utils.join(CWD, file);
-        Blob blob = null;
-        if (named.exists()) {
-            blob = new Blob(file);
-        } else {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
-
-        String blobH = blob.getHash();
-        if (GitUtils.writeStagedToIndex(blobH, file)) {
-            GitUtils.writeBlob(blob);
+    void add(String... paths) {
+        LinkedHashSet<String> files = new LinkedHashSet<>();
+        for (String path : paths) {
+            List<String> matched = GitUtils.expandPath(ctx, path);
+            if (matched.isEmpty()) {
+                throw Utils.error("File does not exist.");
+            }
+            files.addAll(matched);
         }
 
+        List<Blob> blobs = files.parallelStream().map(file -> new Blob(ctx, file))
+                .collect(Collectors.toList());
+        GitUtils.stageAll(ctx, blobs);
     }
 
 
     /**
      * Make a new commit
      * @param message the message associated with the commit
+     * @return the hash of the new commit
      */
 
-    static void commit(String message) {
+    String commit(String message) {
         if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
         } else {
 
-            if (GitUtils.stageIsEmpty()) {
-                System.out.println("No changes added to the commit");
-                System.exit(0);
+            if (GitUtils.stageIsEmpty(ctx)) {
+                throw Utils.error("No changes added to the commit");
             }
 
-            Commit curCommit = GitUtils.getCurrentCommit();
-            HashMap<String, String> last = curCommit.getContents();
-            HashMap<String, String> cur = new HashMap<>(last);
+            Commit curCommit = GitUtils.getCurrentCommit(ctx);
+            String tree = GitUtils.preCommitUpdate(ctx, curCommit.getTree(ctx));
 
-            GitUtils.preCommitUpdate(cur);
-
-            Commit current = new Commit(message, cur, GitUtils.getHead(), GitUtils.currentBranch());
-            GitUtils.writeCommit(current);
+            Commit current = new Commit(message, tree, GitUtils.getHead(ctx),
+                    GitUtils.currentBranch(ctx));
+            GitUtils.writeCommit(ctx, current);
 
             // Clearing "staged for addition" and "staged for removal"
-            GitUtils.clearStage();
-            GitUtils.addCommit(current.getHash());
-
+            GitUtils.clearStage(ctx);
+            GitUtils.addCommit(ctx, current.getHash());
+            return current.getHash();
         }
 
     }
@@ -118,102 +123,98 @@ public class Repository implements Serializable {
      * @param file name
      */
 
-    static void remove(String file) {
-        if (!GitUtils.removeHelper(file)) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+    void remove(String file) {
+        if (!GitUtils.removeHelper(ctx, file)) {
+            throw Utils.error("No reason to remove the file.");
         }
 
     }
 
     /**
-     * Displays the commits from current head to the initial commit.
+     * Return the commits from current head to the initial commit.
      */
-    static void log() {
-
-        Commit curCommit = GitUtils.getCurrentCommit();
+    List<LogEntry> log() {
+        List<LogEntry> entries = new ArrayList<>();
+        log(-1, Long.MIN_VALUE, entries::add);
+        return entries;
+    }
 
-        while (curCommit.getParent() != null) {
-            System.out.println("===");
-            System.out.println("commit " + curCommit.getHash());
-            if (curCommit.isMerge()) {
-                String firstP = curCommit.getParent().substring(0, 7);
-                String secP = curCommit.getMergeParent().substring(0, 7);
-                System.out.println("Merge: " + firstP + " " + secP);
+    /**
+     * Pass the commits from current head towards the initial commit to
+     * VISITOR one at a time, reading each only when it is reached
+     * @param maxCount most commits to pass, or -1 for no limit
+     * @param since    stop at the first commit made before this time, in
+     *                 milliseconds since the epoch
+     * @param visitor  given each commit; returns false to stop the walk
+     */
+    void log(int maxCount, long since, Predicate<LogEntry> visitor) {
+        String hash = GitUtils.getHead(ctx);
+        for (int n = 0; hash != null && n != maxCount; n++) {
+            Commit curCommit = GitUtils.getCommit(ctx, hash);
+            if (since != Long.MIN_VALUE && curCommit.getTimestamp() < since) {
+                return;
             }
-            System.out.println("Date: " + curCommit.getTime());
-            System.out.println(curCommit.getMessage());
-            System.out.println("");
-
-            curCommit = GitUtils.getCommit(curCommit.getParent());
+            if (!visitor.test(new LogEntry(curCommit))) {
+                return;
+            }
+            hash = curCommit.getParent();
         }
-
-        System.out.println("===");
-        System.out.println("commit " + curCommit.getHash());
-        System.out.println("Date: " + curCommit.getTime());
-        System.out.println(curCommit.getMessage());
-        System.out.println("");
-
     }
 
     /**
-     * This is the way to call all the logs.
+     * This is the way to get all the logs.
      */
 
-    static void globall() {
-
-        HashSet<String> commits = GitUtils.getCommits();
-        for (String s : commits) {
+    List<LogEntry> globall() {
+        List<LogEntry> entries = new ArrayList<>();
+        globall(entries::add);
+        return entries;
+    }
 
-            Commit curCommit = GitUtils.getCommit(s);
-            System.out.println("===");
-            System.out.println("commit " + curCommit.getHash());
-            if (curCommit.isMerge()) {
-                String firstP = curCommit.getParent().substring(0, 7);
-                String secP = curCommit.getMergeParent().substring(0, 7);
-                System.out.println("Merge: " + firstP + " " + secP);
-            }
-            System.out.println("Date: " + curCommit.getTime());
-            System.out.println(curCommit.getMessage());
-            System.out.println("");
-        }
+    /**
+     * Pass every commit ever made to VISITOR, oldest first, straight
+     * from the commit log
+     * @param visitor given each commit; returns false to stop
+     */
+    void globall(Predicate<LogEntry> visitor) {
+        CommitLog.scan(ctx, visitor);
     }
 
     /**
      * This will find a particular message.
      * @param message The message one wants to find
+     * @return the hashes of the commits with that message
      */
-    static void find(String message) {
-        boolean found = false;
-        HashSet<String> commits = GitUtils.getCommits();
-        for (String s : commits) {
-            Commit commit = GitUtils.getCommit(s);
-            String commitMessage = commit.getMessage();
-            if (message.equals(commitMessage)) {
-                System.out.println(commit.getHash());
-                found = true;
+    List<String> find(String message) {
+        List<String> found = new ArrayList<>();
+        CommitLog.scan(ctx, entry -> {
+            if (message.equals(entry.getMessage())) {
+                found.add(entry.getHash());
             }
-        }
+            return true;
+        });
 
-        if (!found) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        if (found.isEmpty()) {
+            throw Utils.error("Found no commit with that message.");
         }
+        return found;
     }
 
     /**
-     * Print out the status of Gitlet repository
+     * Return the status of Gitlet repository
      */
-    static void status() {
+    Status status() {
 
-        Commit curCommit = GitUtils.getCurrentCommit();
+        Commit curCommit = GitUtils.getCurrentCommit(ctx);
 
-        ArrayList<String> branches = GitUtils.getBranches();
-        HashMap<String, String> staged = GitUtils.getStage();
-        HashMap<String, String> removalStaged = GitUtils.getRemoved();
+        ArrayList<String> branches = GitUtils.getBranches(ctx);
+        StagingIndex index = StagingIndex.get(ctx);
+        HashMap<String, String> staged = index.additions();
+        HashMap<String, String> removalStaged = index.removals();
 
-        List<String> untracked = GitUtils.untrackedFiles(curCommit);
-        List<String> modified = GitUtils.modifiedFiles(curCommit);
+        WorkingTree tree = new WorkingTree(ctx, curCommit);
+        List<String> untracked = tree.untracked();
+        List<String> modified = tree.modified();
 
         ArrayList<String> stage = new ArrayList<>(
                 staged.keySet());
@@ -226,56 +227,132 @@ public class Repository implements Serializable {
         Collections.sort(untracked);
         Collections.sort(branches);
 
-        String currentBranch = GitUtils.currentBranch();
+        return new Status(branches, GitUtils.currentBranch(ctx), stage, unstage,
+                modified, untracked);
+    }
 
-        System.out.println("=== Branches ===");
-        for (String b : branches) {
-            if (b.equals(currentBranch)) {
-                System.out.print("*");
+    /**
+     * Write the changes in the working directory that are not staged: the
+     * tracked files whose content differs from the version staged for
+     * them, or from the one in the current commit if none is. Files are
+     * compared by blob hash through the stat cache, and only those that
+     * differ are read.
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the unified diff goes
+     */
+    void diff(DiffAlgorithm algorithm, OutputStream out) {
+        StagingIndex index = StagingIndex.get(ctx);
+        TreeMap<String, String> tracked = new TreeMap<>(
+                GitUtils.getCurrentCommit(ctx).getContents(ctx));
+        tracked.putAll(index.additions());
+        tracked.keySet().removeAll(index.removals().keySet());
+
+        StatCache cache = StatCache.get(ctx);
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        tracked.keySet().parallelStream().filter(file -> Utils.join(ctx.cwd, file).isFile())
+                .forEach(file -> hashes.put(file, cache.hash(file)));
+        cache.save();
+
+        UnifiedDiff diff = new UnifiedDiff(out, algorithm);
+        try {
+            for (Map.Entry<String, String> entry : tracked.entrySet()) {
+                String file = entry.getKey();
+                String hash = hashes.get(file);
+                if (entry.getValue().equals(hash)) {
+                    continue;
+                }
+                byte[] content = hash == null ? null
+                        : Utils.readContents(Utils.join(ctx.cwd, file));
+                diff.file(file, GitUtils.getBlobContent(ctx, entry.getValue()), content);
             }
-            System.out.println(b);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        System.out.println("");
+    }
 
-        System.out.println("=== Staged Files ===");
-        for (String b : stage) {
-            System.out.println(b);
+    /**
+     * Write the changes staged for the next commit, between the current
+     * commit and the staging area
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the unified diff goes
+     */
+    void diffCached(DiffAlgorithm algorithm, OutputStream out) {
+        Commit head = GitUtils.getCurrentCommit(ctx);
+        StagingIndex index = StagingIndex.get(ctx);
+        TreeMap<String, String> staged = new TreeMap<>(index.additions());
+        for (String file : index.removals().keySet()) {
+            staged.put(file, null);
         }
-        System.out.println("");
 
-        System.out.println("=== Removed Files ===");
-        for (String b : unstage) {
-            System.out.println(b);
+        UnifiedDiff diff = new UnifiedDiff(out, algorithm);
+        for (Map.Entry<String, String> entry : staged.entrySet()) {
+            diffBlobs(diff, entry.getKey(), head.blobOf(ctx, entry.getKey()),
+                    entry.getValue());
         }
-        System.out.println("");
+    }
 
+    /**
+     * Write the changes between two commits. Only the subtrees whose
+     * hashes differ are read, and only the blobs of the files that
+     * changed.
+     * @param from      full or abbreviated hash of the old commit
+     * @param to        full or abbreviated hash of the new commit
+     * @param algorithm how the changes of each file are computed
+     * @param out       where the unified diff goes
+     */
+    void diff(String from, String to, DiffAlgorithm algorithm, OutputStream out) {
+        Commit oldCommit = GitUtils.getCommit(ctx, resolveCommit(from));
+        Commit newCommit = GitUtils.getCommit(ctx, resolveCommit(to));
+        TreeMap<String, String> changed = Tree.diff(ctx, oldCommit.getTree(ctx),
+                newCommit.getTree(ctx));
 
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        for (String s : modified) {
-            System.out.println(s);
+        UnifiedDiff diff = new UnifiedDiff(out, algorithm);
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            diffBlobs(diff, entry.getKey(), oldCommit.blobOf(ctx, entry.getKey()),
+                    entry.getValue());
         }
-        System.out.println("");
-
+    }
 
-        System.out.println("=== Untracked Files ===");
-        for (String s : untracked) {
-            System.out.println(s);
+    /** Write the changes to FILE from the blob OLDH to the blob NEWH,
+     *  either of which is null if the file doesn't exist on that side. */
+    private void diffBlobs(UnifiedDiff diff, String file, String oldH, String newH) {
+        if (Objects.equals(oldH, newH)) {
+            return;
         }
-        System.out.println("");
+        try {
+            diff.file(file, oldH == null ? null : GitUtils.getBlobContent(ctx, oldH),
+                    newH == null ? null : GitUtils.getBlobContent(ctx, newH));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the blobs of a repository made by an older version
+     * of gitlet in the current object format
+     */
+    void migrate() {
+        GitUtils.migrateBlobs(ctx);
+    }
+
+    /**
+     * Pack all loose commits and blobs into a single pack file
+     */
+    void pack() {
+        GitUtils.pack(ctx);
     }
 
     /**
      * Add a new branch
      * @param branchName the name of the branch
      */
-    static void branch(String branchName) {
-        ArrayList<String> branches = GitUtils.getBranches();
+    void branch(String branchName) {
+        ArrayList<String> branches = GitUtils.getBranches(ctx);
         if (branches.contains(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw Utils.error("A branch with that name already exists.");
         } else {
-            GitUtils.addBranch(branchName);
-            GitUtils.updateBranchHead(GitUtils.getHead(), branchName);
+            GitUtils.addBranch(ctx, branchName);
+            GitUtils.updateBranchHead(ctx, GitUtils.getHead(ctx), branchName);
         }
     }
 
@@ -285,50 +362,40 @@ public class Repository implements Serializable {
      * @param name   File name
      * @param commit Commit specified (by hash)
      */
-    static void checkout(String name, String commit) {
-        HashSet<String> commits = GitUtils.getCommits();
-        String fullCommitHash = commit;
-
-        boolean found = false;
-        int length = commit.length();
-
-        if (length < COMMIT_LENGTH) {
-            for (String i : commits) {
-                if (commit.equals(i.substring(0, length))) {
-                    fullCommitHash = i;
-                    found = true;
-                }
-            }
-        } else {
-            if (commits.contains(commit)) {
-                found = true;
-            }
-        }
+    void checkout(String name, String commit) {
+        String fullCommitHash = resolveCommit(commit);
 
-        // Condition check
-        if (!found) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        Commit specCommit = GitUtils.getCommit(ctx, fullCommitHash);
+        String blobH = specCommit.blobOf(ctx, name);
+        if (blobH == null) {
+            throw Utils.error("File does not exist in that commit.");
         }
 
-        Commit specCommit = GitUtils.getCommit(fullCommitHash);
-        HashMap<String, String> files = specCommit.getContents();
-        if (!files.containsKey(name)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
-        }
+        File cwdFile = Utils.join(ctx.cwd, name);
+        GitUtils.updateRepoFile(ctx, cwdFile, blobH);
+    }
 
-        String blobH = files.get(name);
-        File cwdFile = Utils.join(CWD, name);
-        GitUtils.updateRepoFile(cwdFile, blobH);
+    /**
+     * Resolve a full or abbreviated commit id
+     * @param id Commit hash or a unique prefix of one
+     * @return the full hash of the commit
+     */
+    String resolveCommit(String id) {
+        List<String> matches = GitUtils.findCommits(ctx, id, 2);
+        if (matches.isEmpty()) {
+            throw Utils.error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw Utils.error("Ambiguous commit id.");
+        }
+        return matches.get(0);
     }
 
     /**
      * Checkout file in the current commit.
      * @param name File name
      */
-    static void checkoutCurrent(String name) {
-        String currentHead = GitUtils.getHead();
+    void checkoutCurrent(String name) {
+        String currentHead = GitUtils.getHead(ctx);
         checkout(name, currentHead);
     }
 
@@ -336,127 +403,135 @@ public class Repository implements Serializable {
      * Checkout a branch
      * @param branchName Branch name
      */
-    static void checkoutBranch(String branchName) {
-        ArrayList<String> branches = GitUtils.getBranches();
+    void checkoutBranch(String branchName) {
+        ArrayList<String> branches = GitUtils.getBranches(ctx);
         if (branches.contains(branchName)) {
-            String currentBranch = GitUtils.currentBranch();
+            String currentBranch = GitUtils.currentBranch(ctx);
             if (currentBranch.equals(branchName)) {
-                System.out.println("No need to checkout the current branch.");
-                System.exit(0);
+                throw Utils.error("No need to checkout the current branch.");
             }
 
-            HashMap<String, String> staged = GitUtils.getStage();
-            HashMap<String, String> removalStaged = GitUtils.getRemoved();
-            Commit curCommit = GitUtils.getCurrentCommit();
-            List<String> untrackedFiles = GitUtils.untrackedFiles(curCommit);
+            StagingIndex index = StagingIndex.get(ctx);
+            HashMap<String, String> staged = index.additions();
+            HashMap<String, String> removalStaged = index.removals();
+            Commit curCommit = GitUtils.getCurrentCommit(ctx);
+            List<String> untrackedFiles = GitUtils.untrackedFiles(ctx, curCommit);
 
-            Commit newCommit = GitUtils.getCommit(GitUtils.getBranchHead(branchName));
-            HashMap<String, String> newFiles = newCommit.getContents();
+            Commit newCommit = GitUtils.getCommit(ctx, GitUtils.getBranchHead(ctx, branchName));
 
             if (!untrackedFiles.isEmpty()) {
-                System.out.println("There is an untracked "
+                throw Utils.error("There is an untracked "
                         + "file in the way; delete it, "
                         + "or add and commit it first.");
-                System.exit(0);
             }
 
-            //put each of the file in the cwd
-            for (String file : newFiles.keySet()) {
-                File update = Utils.join(CWD, file);
-                GitUtils.updateRepoFile(update, newFiles.get(file));
-            }
-
-            //delete tracked files that are not present in the checkout branch
-            HashSet<String> trackedFiles = GitUtils.trackedFiles();
-            for (String file : trackedFiles) {
-                if (!newFiles.containsKey(file)) {
-                    Utils.restrictedDelete(file);
-                }
-            }
+            //update the files that differ in the checkout branch
+            checkoutFiles(curCommit, newCommit, staged, removalStaged);
 
             //update HEAD to new branch
-            GitUtils.writeHead(branchName);
+            GitUtils.writeHead(ctx, branchName);
 
             //clear staging area
-            GitUtils.clearStage();
+            GitUtils.clearStage(ctx);
 
         } else {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw Utils.error("No such branch exists.");
         }
 
     }
 
+    /**
+     * Make the tracked files in the CWD match another commit, touching
+     * only the paths that differ between the two commits or are staged.
+     * A file is not rewritten when it already holds the right content,
+     * the others are written in parallel, and files that are no longer
+     * tracked are deleted.
+     * @param curCommit     the current commit
+     * @param newCommit     the commit to check out
+     * @param staged        files staged for addition
+     * @param removalStaged files staged for removal
+     */
+    void checkoutFiles(Commit curCommit, Commit newCommit,
+                              HashMap<String, String> staged,
+                              HashMap<String, String> removalStaged) {
+        TreeMap<String, String> changed = Tree.diff(ctx, curCommit.getTree(ctx),
+                newCommit.getTree(ctx));
+        for (String file : staged.keySet()) {
+            if (!changed.containsKey(file)) {
+                changed.put(file, newCommit.blobOf(ctx, file));
+            }
+        }
+        for (String file : removalStaged.keySet()) {
+            if (!changed.containsKey(file)) {
+                changed.put(file, newCommit.blobOf(ctx, file));
+            }
+        }
+
+        StatCache cache = StatCache.get(ctx);
+        //delete tracked files that are not present in the new commit first,
+        //so that a directory may take the place of a file
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            if (entry.getValue() == null) {
+                GitUtils.deleteWorkingFile(ctx, entry.getKey());
+                cache.forget(entry.getKey());
+            }
+        }
+        changed.values().removeIf(Objects::isNull);
+        GitUtils.updateRepoFiles(ctx, changed);
+        cache.save();
+    }
+
     /**
      * This removes a branch and its corresponding head.
      * @param branchName the name of the branch to remove
      */
 
-    static void removeBranch(String branchName) {
-        ArrayList<String> branches = GitUtils.getBranches();
+    void removeBranch(String branchName) {
+        ArrayList<String> branches = GitUtils.getBranches(ctx);
         if (branches.contains(branchName)) {
-            String currentBranch = GitUtils.currentBranch();
+            String currentBranch = GitUtils.currentBranch(ctx);
             if (currentBranch.equals(branchName)) {
-                System.out.println("Cannot remove the current branch.");
-                System.exit(0);
+                throw Utils.error("Cannot remove the current branch.");
             }
-            GitUtils.removeBranch(branchName);
+            GitUtils.removeBranch(ctx, branchName);
         } else {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
 
     }
 
     /**
      * Reset to a previous commit.
-     * @param commit a string for hash value of commit to reset to
+     * @param id a string for the (possibly abbreviated) hash of the commit to reset to
      */
 
-    static void reset(String commit) {
-        HashSet<String> commits = GitUtils.getCommits();
-
-        if (!commits.contains(commit)) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
+    void reset(String id) {
+        String commit = resolveCommit(id);
 
-        HashMap<String, String> staged = GitUtils.getStage();
-        HashMap<String, String> removalStaged = GitUtils.getRemoved();
-        Commit curCommit = GitUtils.getCurrentCommit();
-        Commit newCommit = GitUtils.getCommit(commit);
+        StagingIndex index = StagingIndex.get(ctx);
+        HashMap<String, String> staged = index.additions();
+        HashMap<String, String> removalStaged = index.removals();
+        Commit curCommit = GitUtils.getCurrentCommit(ctx);
+        Commit newCommit = GitUtils.getCommit(ctx, commit);
 
-        List<String> untrackedFiles = GitUtils.untrackedFiles(curCommit);
-        HashMap<String, String> newFiles = newCommit.getContents();
+        List<String> untrackedFiles = GitUtils.untrackedFiles(ctx, curCommit);
 
         if (!untrackedFiles.isEmpty()) {
-            System.out.println("There is an untracked file "
+            throw Utils.error("There is an untracked file "
                     + "in the way; delete it, "
                     + "or add and commit it first.");
-            System.exit(0);
         }
 
 
-        //put each of the file in the cwd
-        for (String file : newFiles.keySet()) {
-            File update = Utils.join(CWD, file);
-            GitUtils.updateRepoFile(update, newFiles.get(file));
-        }
-
-        //delete tracked files that are not present in the checkout branch
-        HashSet<String> trackedFiles = GitUtils.trackedFiles();
-        for (String file : trackedFiles) {
-            if (!newFiles.containsKey(file)) {
-                Utils.restrictedDelete(file);
-            }
-        }
+        //update the files that differ in the given commit
+        checkoutFiles(curCommit, newCommit, staged, removalStaged);
 
         //update HEAD and branch ref to new commit (doesn't have to move head since
         // it will still be pointing to the branch ref)
-        GitUtils.updateBranchHead(commit, GitUtils.currentBranch());
+        GitUtils.updateBranchHead(ctx, commit, GitUtils.currentBranch(ctx));
 
         //clear staging area
-        GitUtils.clearStage();
+        GitUtils.clearStage(ctx);
 
     }
 
@@ -465,208 +540,241 @@ public class Repository implements Serializable {
      * to prevent failure cases
      * @param branchName the given branch
      */
-    static void mergeCheck(String branchName) {
-        HashMap<String, String> staged = GitUtils.getStage();
-        HashMap<String, String> removalStaged = GitUtils.getRemoved();
-        if (!staged.isEmpty() || !removalStaged.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+    void mergeCheck(String branchName) {
+        if (!StagingIndex.get(ctx).isEmpty()) {
+            throw Utils.error("You have uncommitted changes.");
         }
 
-        ArrayList<String> branches = GitUtils.getBranches();
+        ArrayList<String> branches = GitUtils.getBranches(ctx);
         if (!branches.contains(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
 
-        String curBranch = GitUtils.currentBranch();
+        String curBranch = GitUtils.currentBranch(ctx);
         if (curBranch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw Utils.error("Cannot merge a branch with itself.");
         }
 
-        List<String> untrackedFiles = GitUtils.untrackedFiles(GitUtils.getCurrentCommit());
+        List<String> untrackedFiles = GitUtils.untrackedFiles(ctx, GitUtils.getCurrentCommit(ctx));
         if (!untrackedFiles.isEmpty()) {
-            System.out.println("There is an untracked file in the "
+            throw Utils.error("There is an untracked file in the "
                     + "way; delete it, or add and commit it first. ");
-            System.exit(0);
         }
 
 
 
     }
 
+    /** What a merge does with one file. */
+    private enum MergeAction {
+        /** Keep the current version. */
+        KEEP,
+        /** Check out and stage the given version. */
+        TAKE_GIVEN,
+        /** Delete the file and stage its removal. */
+        REMOVE,
+        /** Merge both versions, see mergeConflictHelper. */
+        CONFLICT
+    }
+
     /**
-     * Compare three sources and select/modify merged files
-     * @param curFiles
-     * @param givenFiles
-     * @param splitFiles
+     * Compare three sources and select/modify merged files. Every file
+     * is classified on its own, in parallel; then the files to delete
+     * are deleted, those to take from the given branch are written
+     * together by GitUtils.updateRepoFiles, and all of them are staged.
+     * The staging area is written once, with the merge commit.
+     * @param curFiles   files of the current commit
+     * @param givenFiles files of the given commit
+     * @param splitFiles files of the split point
+     * @return the files changed in both branches, which are left alone
      */
-    static HashSet<String> mergeCompare(HashMap<String, String> curFiles,
+    HashSet<String> mergeCompare(HashMap<String, String> curFiles,
                                         HashMap<String, String> givenFiles,
                                         HashMap<String, String> splitFiles) {
+        Set<String> paths = new HashSet<>(curFiles.keySet());
+        paths.addAll(givenFiles.keySet());
+        Map<String, MergeAction> actions = paths.parallelStream().collect(
+                Collectors.toConcurrentMap(file -> file,
+                    file -> mergeAction(curFiles.get(file), givenFiles.get(file),
+                            splitFiles.get(file))));
 
         HashSet<String> mergeConflictFiles = new HashSet<>();
+        TreeMap<String, String> toWrite = new TreeMap<>();
+        StagingIndex index = StagingIndex.get(ctx);
+        StatCache cache = StatCache.get(ctx);
+        for (Map.Entry<String, MergeAction> entry : actions.entrySet()) {
+            String file = entry.getKey();
+            switch (entry.getValue()) {
+                case TAKE_GIVEN:
+                    toWrite.put(file, givenFiles.get(file));
+                    break;
+                case REMOVE:
+                    // Remove and (untrack) -- > later, will clear stage
+                    index.stageRemoval(file, curFiles.get(file));
+                    GitUtils.deleteWorkingFile(ctx, file);
+                    cache.forget(file);
+                    break;
+                case CONFLICT:
+                    mergeConflictFiles.add(file);
+                    break;
+                default:
+                    break;
+            }
+        }
 
-        for (String file : curFiles.keySet()) {
-            String curVer = curFiles.get(file);
-
-            if (givenFiles.containsKey(file)) {
-                String givenVer = givenFiles.get(file);
-
-                if (splitFiles.containsKey(file)) {
-                    String splitVer = splitFiles.get(file);
-
-                    // Modified in given but not modified in current; present in split
-                    if (splitVer.equals(curVer) && !splitVer.equals(givenVer)) {
-                        GitUtils.writeStagedToIndex(givenVer, file);
-                        File cwdFile = Utils.join(CWD, file);
-                        GitUtils.updateRepoFile(cwdFile, givenVer);
-
-                        // If modified differently in cur and given
-                        // Split is different from both current and given
-                    } else if (!splitVer.equals(curVer)
-                            && !splitVer.equals(givenVer)
-                            && !curVer.equals(givenVer)) {
-                        mergeConflictFiles.add(file);
-                    } // if only modified in current but not in split and given, don't do anything
-
-                } else {
-                    // File absent in split point
-                    if (!givenVer.equals(curVer)) {
-                        mergeConflictFiles.add(file);
-                    }
+        GitUtils.updateRepoFiles(ctx, toWrite);
+        cache.save();
+        toWrite.forEach(index::stage);
+        return mergeConflictFiles;
+    }
 
+    /** Return what to do with a file whose blob is CURVER in the current
+     *  commit, GIVENVER in the given one and SPLITVER at the split point,
+     *  each null if the file doesn't exist there. */
+    private static MergeAction mergeAction(String curVer, String givenVer, String splitVer) {
+        if (curVer != null && givenVer != null) {
+            if (splitVer != null) {
+                // Modified in given but not modified in current; present in split
+                if (splitVer.equals(curVer) && !splitVer.equals(givenVer)) {
+                    return MergeAction.TAKE_GIVEN;
                 }
-            } else {
-                // File absent in given branch
-                if (splitFiles.containsKey(file)) {
-                    // If split point contains the file
-                    String splitVer = splitFiles.get(file);
-                    // Merge conflict
-                    if (!splitVer.equals(curVer)) {
-                        mergeConflictFiles.add(file);
-                    } else {
-                        // Remove and (untrack) -- > later, will clear stage
-                        GitUtils.stageForRemoval(file, curVer);
-                        Utils.restrictedDelete(file);
-                    }
+                // If modified differently in cur and given
+                // Split is different from both current and given
+                if (!splitVer.equals(curVer) && !splitVer.equals(givenVer)
+                        && !curVer.equals(givenVer)) {
+                    return MergeAction.CONFLICT;
                 }
-
+                // if only modified in current but not in split and given, don't do anything
+                return MergeAction.KEEP;
             }
+            // File absent in split point
+            return givenVer.equals(curVer) ? MergeAction.KEEP : MergeAction.CONFLICT;
+        } else if (curVer != null) {
+            // File absent in given branch
+            if (splitVer == null) {
+                return MergeAction.KEEP;
+            }
+            return splitVer.equals(curVer) ? MergeAction.REMOVE : MergeAction.CONFLICT;
         }
-
         // not in cur branch
-        for (String file : givenFiles.keySet()) {
-
-            if (!curFiles.containsKey(file)) {
-                String givenVer = givenFiles.get(file);
-                // If in split point
-                if (splitFiles.containsKey(file)) {
-                    String splitVer = splitFiles.get(file);
-                    if (!splitVer.equals(givenVer)) {
-                        mergeConflictFiles.add(file);
-                    } // else, don't do anything
-                } else {
-                    // Only in given branch
-                    GitUtils.writeStagedToIndex(givenVer, file);
-                    File cwdFile = Utils.join(CWD, file);
-                    GitUtils.updateRepoFile(cwdFile, givenVer);
-                }
-            }
+        if (splitVer == null) {
+            // Only in given branch
+            return MergeAction.TAKE_GIVEN;
         }
-
-        return mergeConflictFiles;
+        return splitVer.equals(givenVer) ? MergeAction.KEEP : MergeAction.CONFLICT;
     }
 
     /**
      * Merge!!!
      * @param branchName branch to merge from
+     * @return what the merge did
      */
-    static void merge(String branchName) {
+    MergeResult merge(String branchName) {
 
         // Perform pre-merge condition check
         mergeCheck(branchName);
 
-        String curCommit = GitUtils.getHead();
-        String givenCommit = GitUtils.getBranchHead(branchName);
-
-        HashSet<String> curAncestors = Commit.getAncestors(curCommit);
-        HashSet<String> givenAncestors = Commit.getAncestors(givenCommit);
+        String curCommit = GitUtils.getHead(ctx);
+        String givenCommit = GitUtils.getBranchHead(ctx, branchName);
 
-        if (curAncestors.contains(givenCommit)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            return;
-        } else if (givenAncestors.contains(curCommit)) {
+        if (BranchBitmaps.contains(ctx, GitUtils.currentBranch(ctx), givenCommit)) {
+            return new MergeResult(MergeResult.Outcome.UP_TO_DATE, curCommit,
+                    new ArrayList<>());
+        } else if (BranchBitmaps.contains(ctx, branchName, curCommit)) {
             checkoutBranch(branchName);
-            System.out.println("Current branch fast-forwarded.");
-            return;
+            return new MergeResult(MergeResult.Outcome.FAST_FORWARD, givenCommit,
+                    new ArrayList<>());
         }
 
         // Lowest common ancestor of the two branches
-        String lowestCommonAncestor = Commit.lowestCommonAncestor(curCommit, givenAncestors);
-
-        HashMap<String, String> curFiles = GitUtils.getCommit(curCommit).getContents();
-        HashMap<String, String> givenFiles = GitUtils.getCommit(givenCommit).getContents();
-        HashMap<String, String> splitFiles = GitUtils.getCommit(lowestCommonAncestor).getContents();
+        String lowestCommonAncestor = CommitGraph.mergeBase(ctx, curCommit, givenCommit);
+
+        // Only the paths changed on either side since the split point can
+        // need merging; the trees are compared subtree by subtree
+        Commit cur = GitUtils.getCommit(ctx, curCommit);
+        Commit given = GitUtils.getCommit(ctx, givenCommit);
+        Commit split = GitUtils.getCommit(ctx, lowestCommonAncestor);
+        Set<String> changed = new HashSet<>(
+                Tree.diff(ctx, split.getTree(ctx), cur.getTree(ctx)).keySet());
+        changed.addAll(Tree.diff(ctx, split.getTree(ctx), given.getTree(ctx)).keySet());
+
+        HashMap<String, String> curFiles = cur.getContents(ctx, changed);
+        HashMap<String, String> givenFiles = given.getContents(ctx, changed);
+        HashMap<String, String> splitFiles = split.getContents(ctx, changed);
         HashSet<String> mergeConflictFiles = mergeCompare(curFiles,
                 givenFiles, splitFiles);
 
-        mergeConflictHelper(mergeConflictFiles,
-                curFiles, givenFiles);
+        HashSet<String> conflicted = mergeConflictHelper(mergeConflictFiles,
+                curFiles, givenFiles, splitFiles);
 
-        GitUtils.preCommitUpdate(curFiles);
-        Commit mergeCommit = new Commit(curFiles, curCommit, givenCommit,
-                GitUtils.currentBranch(), branchName);
-        GitUtils.writeCommit(mergeCommit);
+        String tree = GitUtils.preCommitUpdate(ctx, cur.getTree(ctx));
+        Commit mergeCommit = new Commit(tree, curCommit, givenCommit,
+                GitUtils.currentBranch(ctx), branchName);
+        GitUtils.writeCommit(ctx, mergeCommit);
 
         // Clearing "staged for addition" and "staged for removal"
-        GitUtils.clearStage();
-        GitUtils.addCommit(mergeCommit.getHash());
+        GitUtils.clearStage(ctx);
+        GitUtils.addCommit(ctx, mergeCommit.getHash());
 
+        List<String> conflicts = new ArrayList<>(conflicted);
+        Collections.sort(conflicts);
+        return new MergeResult(MergeResult.Outcome.MERGED, mergeCommit.getHash(), conflicts);
     }
 
     /**
-     * Print merge conflict message
-     * @param mergeConflictFiles
-     * @param curFiles
-     * @param givenFiles
+     * Merge and stage the files changed in both branches. A file both
+     * branches still have is merged line by line against its version at
+     * the split point, and only the lines changed differently on the two
+     * sides are left between conflict markers; a file one branch deleted
+     * and the other changed is written whole between markers. The files
+     * are merged in parallel.
+     * @param mergeConflictFiles files changed in both branches
+     * @param curFiles           files of the current commit
+     * @param givenFiles         files of the given commit
+     * @param splitFiles         files of the split point
+     * @return the files left with conflicts
      */
-    static void mergeConflictHelper(HashSet<String> mergeConflictFiles,
+    HashSet<String> mergeConflictHelper(HashSet<String> mergeConflictFiles,
                                     HashMap<String, String> curFiles,
-                                    HashMap<String, String> givenFiles) {
-        if (mergeConflictFiles.isEmpty()) {
-            return;
-        }
-
-        String output = "Encountered a merge conflict.";
-
-        for (String file : mergeConflictFiles) {
-            String cur = "";
-            String given = "";
-            String content = "";
-
-            if (curFiles.containsKey(file)) {
-                cur = GitUtils.getBlobContent(curFiles.get(file));
-            }
-
-            if (givenFiles.containsKey(file)) {
-                given = GitUtils.getBlobContent(givenFiles.get(file));
+                                    HashMap<String, String> givenFiles,
+                                    HashMap<String, String> splitFiles) {
+        Set<String> conflicted = ConcurrentHashMap.newKeySet();
+        Map<String, String> merged = new ConcurrentHashMap<>();
+        mergeConflictFiles.parallelStream().forEach(file -> {
+            byte[] cur = blobContent(curFiles, file);
+            byte[] given = blobContent(givenFiles, file);
+
+            File loc = Utils.join(ctx.cwd, file);
+            loc.getParentFile().mkdirs();
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(loc.toPath()), Blob.BUFFER_SIZE)) {
+                if (curFiles.containsKey(file) && givenFiles.containsKey(file)) {
+                    byte[] split = blobContent(splitFiles, file);
+                    if (Merge3.merge(split, cur, given, out)) {
+                        conflicted.add(file);
+                    }
+                } else {
+                    Merge3.conflict(cur, given, out);
+                    conflicted.add(file);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
-
-            content += "<<<<<<< HEAD\n" + cur + "=======\n" + given + ">>>>>>>\n";
-
-            File loc = Utils.join(CWD, file);
-            Utils.writeContents(loc, content);
-            Blob newB = new Blob(file);
+            Blob newB = new Blob(ctx, file);
             String hash = newB.getHash();
 
-            GitUtils.writeBlob(newB);
-            GitUtils.writeStagedToIndex(hash, file);
+            GitUtils.writeBlob(ctx, newB);
+            merged.put(file, hash);
+        });
 
-        }
+        merged.forEach(StagingIndex.get(ctx)::stage);
+        return new HashSet<>(conflicted);
+    }
 
-        System.out.println(output);
+    /** Return the content FILE has in FILES, empty if it has none. */
+    private byte[] blobContent(HashMap<String, String> files, String file) {
+        String blobH = files.get(file);
+        return blobH == null ? new byte[0] : GitUtils.getBlobContent(ctx, blobH);
     }
 
 
@@ -0,0 +1,508 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/** The staging area of a repository, kept in .gitlet/INDEX: the files
+ *  staged for addition with the blob staged for each, and the files staged
+ *  for removal with the blob they are removed from.
+ *  INDEX is a header (magic, version, number of entries and the CRC-32 of
+ *  everything after the header), a table of fixed-width entries sorted by
+ *  the UTF-8 bytes of their paths, then the paths themselves. An entry
+ *  holds whether its file is staged for addition or removal, the length
+ *  and offset of its path, the raw blob hash, and the size, modification
+ *  time and mode the file had when it was staged.
+ *  The file is memory mapped and a path is looked up by binary search
+ *  without decoding the others. Changes are kept in memory and written
+ *  once, when the command's transaction is applied: if every changed path
+ *  already has an entry, only those entries and the checksum are written
+ *  over the old ones, and otherwise the whole file is rewritten.
+ *  The serialized maps older versions of gitlet kept in INDEX and INDEX_RM
+ *  are still read, and replaced by the new format the first time the
+ *  staging area changes.
+ */
+class StagingIndex {
+
+    /** "GSIX", the first four bytes of the index. */
+    private static final int MAGIC = 0x47534958;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Where the checksum is in the header. */
+    private static final int CHECKSUM = 12;
+
+    /** Size of an entry: flags and path length (2 bytes each), path
+     *  offset (4), hash (20), size and mtime (8 each), mode (4). */
+    private static final int ENTRY_SIZE = 48;
+
+    /** Where the hash is in an entry. */
+    private static final int HASH = 8;
+
+    /** Flags of an entry. */
+    private static final short ADDED = 1;
+    private static final short REMOVED = 2;
+
+    /** Modes of a regular and an executable file. */
+    private static final int MODE_FILE = 0100644;
+    private static final int MODE_EXECUTABLE = 0100755;
+
+    /** Java serialization magic, the first two bytes of an old INDEX. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
+    /** One staged file. */
+    static class Entry {
+        /** Path of the file, relative to the CWD. */
+        final String path;
+        /** Whether the file is staged for removal rather than addition. */
+        final boolean removed;
+        /** Hash of the staged blob, or of the removed one. */
+        final String hash;
+        /** Size of the file when it was staged, 0 for a removal. */
+        final long size;
+        /** Modification time of the file when it was staged. */
+        final long mtime;
+        /** Mode of the file when it was staged, 0 for a removal. */
+        final int mode;
+
+        Entry(String path, boolean removed, String hash, long size, long mtime, int mode) {
+            this.path = path;
+            this.removed = removed;
+            this.hash = hash;
+            this.size = size;
+            this.mtime = mtime;
+            this.mode = mode;
+        }
+
+        private boolean sameAs(Entry other) {
+            return other != null && removed == other.removed && hash.equals(other.hash)
+                    && size == other.size && mtime == other.mtime && mode == other.mode;
+        }
+    }
+
+    /** The repository. */
+    private final RepoContext ctx;
+
+    /** INDEX as it is on disk, or as converted from the old format. */
+    private ByteBuffer base;
+
+    /** Number of entries in BASE. */
+    private int count;
+
+    /** Whether BASE was converted from the old format. */
+    private boolean legacy;
+
+    /** Metadata of INDEX when it was mapped. */
+    private Object fileKey;
+    private long modified;
+    private long length;
+
+    /** Entries changed since BASE, by path; null for an unstaged path. */
+    private final TreeMap<String, Entry> changes = new TreeMap<>();
+
+    /** Whether every entry of BASE was dropped. */
+    private boolean cleared;
+
+    /** Whether the changes are to be written when the transaction is. */
+    private boolean scheduled;
+
+    private StagingIndex(RepoContext ctx) {
+        this.ctx = ctx;
+        load();
+    }
+
+    /**
+     * Return the staging area of a repository, mapping INDEX again if
+     * another process changed it
+     * @param ctx the repository
+     */
+    static StagingIndex get(RepoContext ctx) {
+        synchronized (ctx) {
+            StagingIndex index = ctx.stagingIndex;
+            if (index == null || !index.isCurrent()) {
+                index = new StagingIndex(ctx);
+                ctx.stagingIndex = index;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Return the hash of the blob a file is staged with for addition,
+     * or null if it isn't
+     * @param path path of the file
+     */
+    synchronized String staged(String path) {
+        Entry entry = entry(path);
+        return entry == null || entry.removed ? null : entry.hash;
+    }
+
+    /**
+     * Whether a file is staged for addition or removal
+     * @param path path of the file
+     */
+    synchronized boolean contains(String path) {
+        return entry(path) != null;
+    }
+
+    /**
+     * Return the files staged for addition, with the hash of each blob
+     */
+    synchronized HashMap<String, String> additions() {
+        HashMap<String, String> result = new HashMap<>();
+        for (Entry entry : entries()) {
+            if (!entry.removed) {
+                result.put(entry.path, entry.hash);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the files staged for removal, with the hash of each blob
+     */
+    synchronized HashMap<String, String> removals() {
+        HashMap<String, String> result = new HashMap<>();
+        for (Entry entry : entries()) {
+            if (entry.removed) {
+                result.put(entry.path, entry.hash);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether nothing is staged
+     */
+    synchronized boolean isEmpty() {
+        if (changes.isEmpty()) {
+            return cleared || count == 0;
+        }
+        return entries().isEmpty();
+    }
+
+    /**
+     * Stage a file of the CWD for addition, recording its metadata
+     * @param path path of the file
+     * @param hash hash of its blob
+     */
+    synchronized void stage(String path, String hash) {
+        long size = 0;
+        long mtime = 0;
+        int mode = MODE_FILE;
+        Path file = Utils.join(ctx.cwd, path).toPath();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            size = attrs.size();
+            mtime = attrs.lastModifiedTime().toMillis();
+            mode = Files.isExecutable(file) ? MODE_EXECUTABLE : MODE_FILE;
+        } catch (IOException excp) {
+            // Staged from a blob whose file is gone; keep no metadata.
+        }
+        change(path, new Entry(path, false, hash, size, mtime, mode));
+    }
+
+    /**
+     * Stage a file for removal
+     * @param path path of the file
+     * @param hash hash of the blob it is removed from
+     */
+    synchronized void stageRemoval(String path, String hash) {
+        change(path, new Entry(path, true, hash, 0, 0, 0));
+    }
+
+    /**
+     * Unstage a file, whether it was staged for addition or removal
+     * @param path path of the file
+     */
+    synchronized void unstage(String path) {
+        if (entry(path) != null) {
+            change(path, null);
+        }
+    }
+
+    /**
+     * Unstage every file
+     */
+    synchronized void clear() {
+        changes.clear();
+        cleared = true;
+        schedule();
+    }
+
+    /** Whether the index still is what INDEX holds. */
+    private synchronized boolean isCurrent() {
+        if (scheduled) {
+            return true;
+        }
+        BasicFileAttributes attrs = attributes();
+        if (attrs == null) {
+            return fileKey == null && length == 0;
+        }
+        return Objects.equals(fileKey, attrs.fileKey()) && length == attrs.size()
+                && modified == attrs.lastModifiedTime().toMillis();
+    }
+
+    /** Map INDEX, or read it from the old format, dropping every change. */
+    private synchronized void load() {
+        changes.clear();
+        cleared = false;
+        legacy = false;
+        BasicFileAttributes attrs = attributes();
+        fileKey = attrs == null ? null : attrs.fileKey();
+        modified = attrs == null ? 0 : attrs.lastModifiedTime().toMillis();
+        length = attrs == null ? 0 : attrs.size();
+        if (attrs == null) {
+            base = ByteBuffer.wrap(encode(new ArrayList<>()));
+        } else {
+            base = map();
+            if (base.limit() >= 2 && (base.getShort(0) & 0xffff) == LEGACY_MAGIC) {
+                base = ByteBuffer.wrap(encode(readLegacy()));
+                legacy = true;
+            }
+            check(base);
+        }
+        count = base.getInt(8);
+    }
+
+    /** Return the metadata of INDEX, or null if there is none. */
+    private BasicFileAttributes attributes() {
+        try {
+            return Files.readAttributes(ctx.index.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private ByteBuffer map() {
+        try (FileChannel in = FileChannel.open(ctx.index.toPath(), StandardOpenOption.READ)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Check the header and checksum of the index in BUF. */
+    private static void check(ByteBuffer buf) {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC
+                || buf.getInt(4) != VERSION
+                || buf.limit() < HEADER_SIZE + (long) buf.getInt(8) * ENTRY_SIZE
+                || buf.getInt(CHECKSUM) != checksum(buf)) {
+            throw Utils.error("Corrupt index file.");
+        }
+    }
+
+    /** Return the CRC-32 of everything after the header of BUF. */
+    private static int checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(HEADER_SIZE));
+        return (int) crc.getValue();
+    }
+
+    /** Return the entries of the serialized maps in INDEX and INDEX_RM. */
+    @SuppressWarnings("unchecked")
+    private List<Entry> readLegacy() {
+        List<Entry> result = new ArrayList<>();
+        HashMap<String, String> added = Utils.readObject(ctx.index, HashMap.class);
+        added.forEach((path, hash) -> result.add(new Entry(path, false, hash, 0, 0, 0)));
+        if (ctx.indexRm.exists()) {
+            HashMap<String, String> removed = Utils.readObject(ctx.indexRm, HashMap.class);
+            removed.forEach((path, hash) -> result.add(new Entry(path, true, hash, 0, 0, 0)));
+        }
+        return result;
+    }
+
+    /** Return the current entry of PATH, or null. */
+    private Entry entry(String path) {
+        if (changes.containsKey(path)) {
+            return changes.get(path);
+        }
+        if (cleared) {
+            return null;
+        }
+        int i = find(path.getBytes(StandardCharsets.UTF_8));
+        return i < 0 ? null : entryAt(i);
+    }
+
+    /** Return every current entry. */
+    private List<Entry> entries() {
+        List<Entry> result = new ArrayList<>();
+        if (!cleared) {
+            for (int i = 0; i < count; i++) {
+                Entry entry = entryAt(i);
+                if (!changes.containsKey(entry.path)) {
+                    result.add(entry);
+                }
+            }
+        }
+        for (Entry entry : changes.values()) {
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /** Return the position of the entry of the UTF-8 path KEY in BASE,
+     *  or -1 if there is none. */
+    private int find(byte[] key) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the path of the entry at I with KEY, byte by byte. */
+    private int compareAt(int i, byte[] key) {
+        int at = HEADER_SIZE + i * ENTRY_SIZE;
+        int len = base.getShort(at + 2) & 0xffff;
+        int start = pathTable() + base.getInt(at + 4);
+        for (int k = 0; k < len && k < key.length; k++) {
+            int cmp = (base.get(start + k) & 0xff) - (key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return len - key.length;
+    }
+
+    private Entry entryAt(int i) {
+        int at = HEADER_SIZE + i * ENTRY_SIZE;
+        byte[] path = new byte[base.getShort(at + 2) & 0xffff];
+        base.get(pathTable() + base.getInt(at + 4), path);
+        return new Entry(new String(path, StandardCharsets.UTF_8),
+                base.getShort(at) == REMOVED, RawHash.toHex(base, at + HASH),
+                base.getLong(at + 28), base.getLong(at + 36), base.getInt(at + 44));
+    }
+
+    private int pathTable() {
+        return HEADER_SIZE + count * ENTRY_SIZE;
+    }
+
+    /** Record the new ENTRY of PATH, null to unstage it. */
+    private void change(String path, Entry entry) {
+        changes.put(path, entry);
+        schedule();
+    }
+
+    /** Have the changes written when the transaction is applied. */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            ctx.journal.beforeCommit(this::flush);
+        }
+    }
+
+    /** Write the changes, in place if no path was added or dropped. */
+    private synchronized void flush() {
+        scheduled = false;
+        int[] positions = legacy || cleared ? null : positions();
+        if (positions == null) {
+            ctx.journal.write(ctx.index, encode(entries()));
+            if (legacy) {
+                ctx.journal.delete(ctx.indexRm);
+            }
+        } else if (positions.length > 0) {
+            byte[] body = new byte[base.limit() - HEADER_SIZE];
+            base.get(HEADER_SIZE, body);
+            int k = 0;
+            for (Entry entry : changes.values()) {
+                int at = HEADER_SIZE + positions[k++] * ENTRY_SIZE;
+                ByteBuffer record = ByteBuffer.allocate(ENTRY_SIZE);
+                putEntry(record, entry, base.getShort(at + 2), base.getInt(at + 4));
+                System.arraycopy(record.array(), 0, body, at - HEADER_SIZE, ENTRY_SIZE);
+                ctx.journal.patch(ctx.index, at, record.array());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ctx.journal.patch(ctx.index, CHECKSUM,
+                    ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array());
+        } else {
+            return;
+        }
+        ctx.journal.afterCommit(this::load);
+    }
+
+    /** Return the position in BASE of each changed entry, skipping none,
+     *  or null if a changed path has no entry there or is unstaged. If
+     *  nothing really changed, return an empty array. */
+    private int[] positions() {
+        int[] result = new int[changes.size()];
+        boolean changed = false;
+        int k = 0;
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            int i = find(change.getKey().getBytes(StandardCharsets.UTF_8));
+            if (i < 0 || change.getValue() == null) {
+                return null;
+            }
+            changed = changed || !change.getValue().sameAs(entryAt(i));
+            result[k++] = i;
+        }
+        return changed ? result : new int[0];
+    }
+
+    /** Return the index file holding ENTRIES. */
+    private static byte[] encode(List<Entry> entries) {
+        byte[][] paths = new byte[entries.size()][];
+        Integer[] order = new Integer[entries.size()];
+        int pathBytes = 0;
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = entries.get(i).path.getBytes(StandardCharsets.UTF_8);
+            if (paths[i].length > 0xffff) {
+                throw Utils.error("Path too long: %s", entries.get(i).path);
+            }
+            order[i] = i;
+            pathBytes += paths[i].length;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(paths[a], paths[b]));
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + paths.length * ENTRY_SIZE
+                + pathBytes);
+        out.putInt(MAGIC).putInt(VERSION).putInt(paths.length).putInt(0);
+        int offset = 0;
+        for (int i : order) {
+            putEntry(out, entries.get(i), (short) paths[i].length, offset);
+            offset += paths[i].length;
+        }
+        for (int i : order) {
+            out.put(paths[i]);
+        }
+        out.putInt(CHECKSUM, checksum(out.flip()));
+        return out.array();
+    }
+
+    private static void putEntry(ByteBuffer out, Entry entry, short pathLength, int offset) {
+        out.putShort(entry.removed ? REMOVED : ADDED).putShort(pathLength).putInt(offset);
+        RawHash.put(out, entry.hash);
+        out.putLong(entry.size).putLong(entry.mtime).putInt(entry.mode);
+    }
+}
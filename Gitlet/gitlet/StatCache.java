@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+
+/** A persistent cache of working-file metadata (size, mtime, inode) and the
+ *  blob hash computed for that metadata, stored next to INDEX.
+ *  A file is only read and rehashed when its metadata changed since the
+ *  hash was recorded. Files may be hashed from several threads at once;
+ *  the entries are only locked around lookups and updates, never while a
+ *  file is being read.
+ *  A cache file that can't be read is treated as empty.
+ *  Commands that only read the repository save the cache too, while
+ *  holding the repository lock with each other. So saving takes a lock of
+ *  its own on INDEX_STAT.lock for just the write, and merges what this
+ *  cache changed into the file as it is then, rather than replacing
+ *  another process's entries with its own.
+ */
+class StatCache implements Serializable {
+    /** Fixed so that the cache stays readable as the class changes. */
+    private static final long serialVersionUID = 2933613180145971118L;
+
+    /** Files modified within this many milliseconds of being hashed
+     * are "racy": a later write in the same timestamp tick would leave
+     * size and mtime unchanged, so their cached hash is never trusted. */
+    private static final long RACY_WINDOW = 2000;
+
+    /** Metadata and blob hash of a single working file. */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = -8714873394255858394L;
+
+        /** Size of the file in bytes. */
+        private long size;
+        /** Last modification time in milliseconds. */
+        private long mtime;
+        /** Inode (file key) of the file, if the platform provides one. */
+        private String inode;
+        /** Hash of the blob built from the file. */
+        private String hash;
+        /** Time at which the hash was computed. */
+        private long checked;
+    }
+
+    /** Cached entries keyed by the filename in the CWD. */
+    private HashMap<String, Entry> entries = new HashMap<>();
+
+    /** Whether the cache has been changed since it was loaded. */
+    private transient boolean dirty;
+
+    /** Files whose entries were set or dropped since the cache was loaded
+     *  or saved. */
+    private transient HashSet<String> changed = new HashSet<>();
+
+    /** The working directory of the repository. */
+    private transient File cwd;
+
+    /** The file the cache is saved to. */
+    private transient File location;
+
+    /**
+     * Return the stat cache of a repository, reading it from
+     * .gitlet the first time it is needed
+     * @param ctx the repository
+     */
+    static StatCache get(RepoContext ctx) {
+        synchronized (ctx) {
+            if (ctx.statCache == null) {
+                StatCache cache = read(ctx.indexStat);
+                cache.cwd = ctx.cwd;
+                cache.location = ctx.indexStat;
+                ctx.statCache = cache;
+            }
+            return ctx.statCache;
+        }
+    }
+
+    /**
+     * Return the blob hash of a file in the CWD, only reading the file
+     * when its metadata doesn't match the cached entry
+     * @param filename name of the file
+     */
+    String hash(String filename) {
+        File file = Utils.join(cwd, filename);
+        BasicFileAttributes attrs = stat(file);
+        synchronized (this) {
+            Entry entry = entries.get(filename);
+            if (entry != null && matches(entry, attrs)
+                    && entry.mtime < entry.checked - RACY_WINDOW) {
+                return entry.hash;
+            }
+        }
+
+        String hash = new Blob(filename, cwd.getPath()).getHash();
+        put(filename, attrs, hash);
+        return hash;
+    }
+
+    /**
+     * Record the hash of a file that has just been written to the CWD
+     * @param filename name of the file
+     * @param hash     hash of the blob the file was written from
+     */
+    void record(String filename, String hash) {
+        File file = Utils.join(cwd, filename);
+        put(filename, stat(file), hash);
+    }
+
+    /**
+     * Drop the entry of a file that is no longer in the CWD
+     * @param filename name of the file
+     */
+    synchronized void forget(String filename) {
+        if (entries.remove(filename) != null) {
+            changed.add(filename);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drop the entries of all files that are not in the given listing
+     * @param workingDir files currently in the CWD
+     */
+    synchronized void retain(Collection<String> workingDir) {
+        HashSet<String> present = new HashSet<>(workingDir);
+        for (String filename : new ArrayList<>(entries.keySet())) {
+            if (!present.contains(filename)) {
+                entries.remove(filename);
+                changed.add(filename);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Write the changes to the cache back to .gitlet, merged with what
+     * other processes saved since it was read
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File lockFile = new File(location.getPath() + ".lock");
+        // A file lock is held by the whole process, so the saves of two
+        // contexts of it are kept apart here.
+        synchronized (StatCache.class) {
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    merge();
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        changed.clear();
+        dirty = false;
+    }
+
+    /** Apply the changes of this cache to the one saved now, adopt the
+     *  result and save it. */
+    private void merge() {
+        HashMap<String, Entry> merged = read(location).entries;
+        for (String filename : changed) {
+            Entry entry = entries.get(filename);
+            if (entry == null) {
+                merged.remove(filename);
+            } else {
+                merged.put(filename, entry);
+            }
+        }
+        entries = merged;
+        Journal.replace(location, Utils.serialize(this));
+    }
+
+    /** Return the cache saved in FILE, or an empty one if there is none
+     *  or it can't be read. */
+    private static StatCache read(File file) {
+        StatCache cache = null;
+        if (file.exists()) {
+            try {
+                cache = Utils.readObject(file, StatCache.class);
+            } catch (IllegalArgumentException excp) {
+                // It is only a cache: one that can't be read, such as one
+                // written by an older build, is started over.
+            }
+        }
+        if (cache == null) {
+            cache = new StatCache();
+        }
+        cache.changed = new HashSet<>();
+        return cache;
+    }
+
+    private synchronized void put(String filename, BasicFileAttributes attrs, String hash) {
+        Entry entry = new Entry();
+        entry.size = attrs.size();
+        entry.mtime = attrs.lastModifiedTime().toMillis();
+        entry.inode = inodeOf(attrs);
+        entry.hash = hash;
+        entry.checked = System.currentTimeMillis();
+        entries.put(filename, entry);
+        changed.add(filename);
+        dirty = true;
+    }
+
+    private static boolean matches(Entry entry, BasicFileAttributes attrs) {
+        return entry.size == attrs.size()
+                && entry.mtime == attrs.lastModifiedTime().toMillis()
+                && Objects.equals(entry.inode, inodeOf(attrs));
+    }
+
+    private static String inodeOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/** In-memory copies of the small state files of a repository: HEAD, the
+ *  branch heads, the branch list and the commit list of repositories
+ *  made before the commit log.
+ *  A file is only read again when its size or modification time changed
+ *  since it was last read or written through this cache, so that a daemon
+ *  serving many commands keeps them all warm. Every read returns a fresh
+ *  copy, which callers are free to modify before writing it back.
+ *  Each repository context has its own. Files are written through the
+ *  journal of the repository, so a value written in a transaction is what
+ *  later reads return until the transaction is applied.
+ */
+class StateCache {
+
+    /** The journal every file is written through. */
+    private final Journal journal;
+
+    /** The last value read from or written to each file. */
+    private final HashMap<File, Entry> entries = new HashMap<>();
+
+    /** A state file's value and the metadata it was seen with. */
+    private static class Entry {
+        private final Object value;
+        private final long modified;
+        private final long length;
+
+        Entry(File file, Object value) {
+            this.value = value;
+            this.modified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean matches(File file) {
+            return modified != 0 && modified == file.lastModified()
+                    && length == file.length();
+        }
+    }
+
+    /**
+     * A cache of the state files of a repository
+     * @param journal the journal of the repository
+     */
+    StateCache(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Read a serialized state file
+     * @param file          the file
+     * @param expectedClass class of the value
+     * @return a copy of the value
+     */
+    synchronized <T extends Serializable> T read(File file, Class<T> expectedClass) {
+        Entry entry = entries.get(file);
+        if (entry == null || !isCurrent(entry, file)) {
+            entry = new Entry(file, Utils.readObject(file, expectedClass));
+            entries.put(file, entry);
+        }
+        return expectedClass.cast(copy(entry.value));
+    }
+
+    /**
+     * Write a serialized state file
+     * @param file  the file
+     * @param value the value
+     */
+    synchronized void write(File file, Serializable value) {
+        journal.write(file, Utils.serialize(value));
+        remember(file, copy(value));
+    }
+
+    /**
+     * Read a state file holding a string, such as HEAD or a branch head
+     * @param file the file
+     */
+    synchronized String readString(File file) {
+        Entry entry = entries.get(file);
+        if (entry == null || !isCurrent(entry, file)) {
+            entry = new Entry(file, Utils.readContentsAsString(file));
+            entries.put(file, entry);
+        }
+        return (String) entry.value;
+    }
+
+    /**
+     * Write a state file holding a string
+     * @param file  the file
+     * @param value the string
+     */
+    synchronized void writeString(File file, String value) {
+        journal.write(file, value.getBytes(StandardCharsets.UTF_8));
+        remember(file, value);
+    }
+
+    /**
+     * Delete a state file, such as the head of a removed branch
+     * @param file the file
+     */
+    synchronized void delete(File file) {
+        journal.delete(file);
+        entries.remove(file);
+    }
+
+    /**
+     * Forget the values written in the open transaction, which is being
+     * aborted
+     */
+    synchronized void discard() {
+        entries.keySet().removeIf(journal::isPending);
+    }
+
+    /** Whether ENTRY still holds the value of FILE. */
+    private boolean isCurrent(Entry entry, File file) {
+        return journal.isPending(file) || entry.matches(file);
+    }
+
+    /** Cache the value just written to FILE, once it is on disk. */
+    private void remember(File file, Object value) {
+        entries.put(file, new Entry(file, value));
+        journal.afterCommit(() -> restamp(file, value));
+    }
+
+    /** Note the metadata FILE has after VALUE was written to it. */
+    private synchronized void restamp(File file, Object value) {
+        Entry entry = entries.get(file);
+        if (entry != null && entry.value == value) {
+            entries.put(file, new Entry(file, value));
+        }
+    }
+
+    /** Return a copy of a state value that the caller may modify. */
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof HashMap) {
+            return new HashMap<>((Map<Object, Object>) value);
+        } else if (value instanceof HashSet) {
+            return new HashSet<>((Collection<Object>) value);
+        } else if (value instanceof ArrayList) {
+            return new ArrayList<>((Collection<Object>) value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+
+/** The state of a repository as shown by status. Every list is sorted. */
+public final class Status {
+
+    /** All the branches. */
+    private final List<String> branches;
+
+    /** The branch HEAD points to. */
+    private final String currentBranch;
+
+    /** Files staged for addition. */
+    private final List<String> staged;
+
+    /** Files staged for removal. */
+    private final List<String> removed;
+
+    /** Tracked files changed in the CWD, suffixed with " (modified)"
+     * or " (deleted)". */
+    private final List<String> modified;
+
+    /** Files in the CWD that aren't tracked. */
+    private final List<String> untracked;
+
+    Status(List<String> branches, String currentBranch, List<String> staged,
+           List<String> removed, List<String> modified, List<String> untracked) {
+        this.branches = Collections.unmodifiableList(branches);
+        this.currentBranch = currentBranch;
+        this.staged = Collections.unmodifiableList(staged);
+        this.removed = Collections.unmodifiableList(removed);
+        this.modified = Collections.unmodifiableList(modified);
+        this.untracked = Collections.unmodifiableList(untracked);
+    }
+
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+
+    public List<String> getStaged() {
+        return staged;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public List<String> getModified() {
+        return modified;
+    }
+
+    public List<String> getUntracked() {
+        return untracked;
+    }
+}
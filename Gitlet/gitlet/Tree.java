@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A snapshot of one directory: the blobs of the files directly inside it
+ *  and the trees of its subdirectories, both identified by hash. A tree is
+ *  identified by the hash of its entries, so an unchanged directory keeps
+ *  the same hash from one commit to the next and is stored only once.
+ *  Paths below are relative to the CWD and separated by '/'. Every walk
+ *  skips the subtrees whose hash is the same on both sides, so its cost
+ *  depends on what changed rather than on the size of the tree.
+ */
+class Tree implements Serializable {
+    /** Fixed so that trees stay readable across builds. */
+    private static final long serialVersionUID = 3170594821765384217L;
+
+    /** Hash of the empty tree, which is never written. */
+    static final String EMPTY = new Tree().getHash();
+
+    /** Blob hashes of the files in this directory, by name. */
+    private final TreeMap<String, String> files;
+
+    /** Tree hashes of the subdirectories, by name. */
+    private final TreeMap<String, String> dirs;
+
+    /** The hash of this tree. */
+    private final String hash;
+
+    /** Create an empty tree */
+    Tree() {
+        this(new TreeMap<>(), new TreeMap<>());
+    }
+
+    private Tree(TreeMap<String, String> files, TreeMap<String, String> dirs) {
+        this.files = files;
+        this.dirs = dirs;
+        this.hash = hashVal();
+    }
+
+    String getHash() {
+        return hash;
+    }
+
+    /** Blob hashes of the files in this directory, by name. */
+    Map<String, String> getFiles() {
+        return files;
+    }
+
+    /** Number of entries in this directory. */
+    int size() {
+        return files.size() + dirs.size();
+    }
+
+    private String hashVal() {
+        List<Object> tmp = new ArrayList<>();
+        tmp.add("tree");
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            tmp.add("f " + entry.getKey() + "\0" + entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : dirs.entrySet()) {
+            tmp.add("d " + entry.getKey() + "\0" + entry.getValue());
+        }
+        return Utils.sha1(tmp);
+    }
+
+    /**
+     * Apply changes to a tree and write the trees that changed. Only the
+     * directories holding a changed path are read and rewritten; every
+     * other subtree is reused by hash.
+     * @param ctx     the repository
+     * @param root    hash of the tree to change, or null for an empty tree
+     * @param changes new blob hash of each changed path, null to remove it
+     * @return hash of the new tree
+     */
+    static String update(RepoContext ctx, String root, Map<String, String> changes) {
+        return updateTree(ctx, root, changes).hash;
+    }
+
+    private static Tree updateTree(RepoContext ctx, String root, Map<String, String> changes) {
+        Tree old = root == null ? new Tree() : GitUtils.getTree(ctx, root);
+        if (changes.isEmpty()) {
+            return old;
+        }
+        TreeMap<String, String> files = new TreeMap<>(old.files);
+        TreeMap<String, String> dirs = new TreeMap<>(old.dirs);
+
+        HashMap<String, HashMap<String, String>> below = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    files.remove(path);
+                } else {
+                    files.put(path, change.getValue());
+                    dirs.remove(path);
+                }
+            } else {
+                below.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, HashMap<String, String>> dir : below.entrySet()) {
+            Tree sub = updateTree(ctx, dirs.get(dir.getKey()), dir.getValue());
+            if (sub.size() == 0) {
+                dirs.remove(dir.getKey());
+            } else {
+                dirs.put(dir.getKey(), sub.hash);
+                files.remove(dir.getKey());
+            }
+        }
+
+        Tree tree = new Tree(files, dirs);
+        if (!tree.hash.equals(old.hash) && tree.size() > 0) {
+            GitUtils.writeTree(ctx, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Return the blob hash of a file in a tree, reading only the trees
+     * on its path
+     * @param ctx  the repository
+     * @param root hash of the tree
+     * @param path path of the file
+     * @return the blob hash, or null if the tree has no such file
+     */
+    static String lookup(RepoContext ctx, String root, String path) {
+        Tree tree = GitUtils.getTree(ctx, root);
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', start)) {
+            String sub = tree.dirs.get(path.substring(start, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = GitUtils.getTree(ctx, sub);
+            start = slash + 1;
+        }
+        return tree.files.get(path.substring(start));
+    }
+
+    /**
+     * Return the blob hash of every file in a tree, by path
+     * @param ctx  the repository
+     * @param root hash of the tree
+     */
+    static HashMap<String, String> flatten(RepoContext ctx, String root) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(ctx, root, "", result);
+        return result;
+    }
+
+    private static void flatten(RepoContext ctx, String root, String prefix,
+                                HashMap<String, String> result) {
+        Tree tree = GitUtils.getTree(ctx, root);
+        for (Map.Entry<String, String> entry : tree.files.entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.dirs.entrySet()) {
+            flatten(ctx, entry.getValue(), prefix + entry.getKey() + "/", result);
+        }
+    }
+
+    /**
+     * Return the paths whose blob differs between two trees, descending
+     * only into the subtrees whose hash differs
+     * @param ctx  the repository
+     * @param from hash of the old tree, or null for an empty tree
+     * @param to   hash of the new tree, or null for an empty tree
+     * @return the blob hash of each changed path in TO, null if TO lacks it
+     */
+    static TreeMap<String, String> diff(RepoContext ctx, String from, String to) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(ctx, from, to, "", result);
+        return result;
+    }
+
+    private static void diff(RepoContext ctx, String from, String to, String prefix,
+                             TreeMap<String, String> result) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Tree a = from == null ? new Tree() : GitUtils.getTree(ctx, from);
+        Tree b = to == null ? new Tree() : GitUtils.getTree(ctx, to);
+
+        for (Map.Entry<String, String> entry : a.files.entrySet()) {
+            if (!entry.getValue().equals(b.files.get(entry.getKey()))) {
+                result.put(prefix + entry.getKey(), b.files.get(entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, String> entry : b.files.entrySet()) {
+            if (!a.files.containsKey(entry.getKey())) {
+                result.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : a.dirs.entrySet()) {
+            diff(ctx, entry.getValue(), b.dirs.get(entry.getKey()),
+                    prefix + entry.getKey() + "/", result);
+        }
+        for (Map.Entry<String, String> entry : b.dirs.entrySet()) {
+            if (!a.dirs.containsKey(entry.getKey())) {
+                diff(ctx, null, entry.getValue(), prefix + entry.getKey() + "/", result);
+            }
+        }
+    }
+}
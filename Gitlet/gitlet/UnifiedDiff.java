@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Writes the changes between two versions of files in the unified diff
+ *  format: for each file a header naming its old and new path, /dev/null
+ *  for a file that is added or deleted, then hunks of changed lines with
+ *  up to CONTEXT unchanged lines around them. Hunks closer than twice
+ *  that are joined. Lines are copied from the contents as they are,
+ *  without being decoded; a file holding a NUL byte is only reported as
+ *  binary.
+ */
+class UnifiedDiff {
+
+    /** Unchanged lines written around each change. */
+    private static final int CONTEXT = 3;
+
+    /** How far a file is searched for a NUL byte. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** Written after a line that lacks a newline. */
+    private static final byte[] NO_NEWLINE =
+            "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Where the diff goes. */
+    private final OutputStream out;
+
+    /** How the changes of each file are computed. */
+    private final DiffAlgorithm algorithm;
+
+    /**
+     * A diff written to a stream
+     * @param out       where the diff goes
+     * @param algorithm how the changes of each file are computed
+     */
+    UnifiedDiff(OutputStream out, DiffAlgorithm algorithm) {
+        this.out = out;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Write the changes to one file
+     * @param path     path of the file
+     * @param oldBytes its old content, or null if it didn't exist
+     * @param newBytes its new content, or null if it was deleted
+     */
+    void file(String path, byte[] oldBytes, byte[] newBytes) throws IOException {
+        write("diff --git a/" + path + " b/" + path + "\n");
+        byte[] before = oldBytes == null ? new byte[0] : oldBytes;
+        byte[] after = newBytes == null ? new byte[0] : newBytes;
+        String oldName = oldBytes == null ? "/dev/null" : "a/" + path;
+        String newName = newBytes == null ? "/dev/null" : "b/" + path;
+        if (isBinary(before) || isBinary(after)) {
+            write("Binary files " + oldName + " and " + newName + " differ\n");
+            return;
+        }
+        write("--- " + oldName + "\n");
+        write("+++ " + newName + "\n");
+
+        Diff.Text[] texts = Diff.split(before, after);
+        Diff.Text a = texts[0];
+        Diff.Text b = texts[1];
+        List<Diff.Edit> edits = Diff.diff(a, b, algorithm);
+        for (int i = 0; i < edits.size();) {
+            int j = i;
+            while (j + 1 < edits.size()
+                    && edits.get(j + 1).aStart - edits.get(j).aEnd <= 2 * CONTEXT) {
+                j++;
+            }
+            hunk(a, b, edits.subList(i, j + 1));
+            i = j + 1;
+        }
+    }
+
+    /** Write one hunk holding EDITS, which are close to each other. */
+    private void hunk(Diff.Text a, Diff.Text b, List<Diff.Edit> edits) throws IOException {
+        Diff.Edit first = edits.get(0);
+        Diff.Edit last = edits.get(edits.size() - 1);
+        int aStart = Math.max(0, first.aStart - CONTEXT);
+        int aEnd = Math.min(a.size(), last.aEnd + CONTEXT);
+        int bStart = first.bStart - (first.aStart - aStart);
+        int bEnd = last.bEnd + (aEnd - last.aEnd);
+        write("@@ -" + range(aStart, aEnd - aStart) + " +" + range(bStart, bEnd - bStart)
+                + " @@\n");
+
+        int pos = aStart;
+        for (Diff.Edit edit : edits) {
+            lines(' ', a, pos, edit.aStart);
+            lines('-', a, edit.aStart, edit.aEnd);
+            lines('+', b, edit.bStart, edit.bEnd);
+            pos = edit.aEnd;
+        }
+        lines(' ', a, pos, aEnd);
+    }
+
+    /** Return a hunk range of LENGTH lines from line START, counted from
+     *  0; an empty range names the line before it. */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** Write lines [from, to) of TEXT, each after PREFIX. */
+    private void lines(char prefix, Diff.Text text, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            int start = text.start[i];
+            int end = text.start[i + 1];
+            out.write(prefix);
+            out.write(text.content, start, end - start);
+            if (text.content[end - 1] != '\n') {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    private void write(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Whether CONTENT holds a NUL byte near its start. */
+    private static boolean isBinary(byte[] content) {
+        for (int i = 0; i < content.length && i < BINARY_PROBE; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
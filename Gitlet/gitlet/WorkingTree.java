@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A single scan of the working directory against a commit and the
+ *  staging area. The CWD and its subdirectories are listed once into a
+ *  hash set of paths, and the files whose content matters are hashed in
+ *  parallel on the common fork-join pool, so that both sections of
+ *  status come from the same pass.
+ */
+class WorkingTree {
+
+    /** The repository. */
+    private final RepoContext ctx;
+
+    /** Files of the commit the CWD is compared with. */
+    private final HashMap<String, String> commitFiles;
+
+    /** Files staged for addition. */
+    private final HashMap<String, String> stageEntries;
+
+    /** Files staged for removal. */
+    private final HashMap<String, String> removalStaged;
+
+    /** Paths of the files below the CWD. */
+    private final HashSet<String> workingDir;
+
+    /**
+     * List the CWD and read the staging area
+     * @param ctx    the repository
+     * @param commit the commit the CWD is compared with
+     */
+    WorkingTree(RepoContext ctx, Commit commit) {
+        this.ctx = ctx;
+        commitFiles = commit.getContents(ctx);
+        StagingIndex index = StagingIndex.get(ctx);
+        stageEntries = index.additions();
+        removalStaged = index.removals();
+        workingDir = new HashSet<>(GitUtils.workingFiles(ctx));
+        StatCache.get(ctx).retain(workingDir);
+    }
+
+    /**
+     * Return the files in the CWD that are neither tracked by the commit
+     * nor staged for addition or removal. No file is read.
+     */
+    LinkedList<String> untracked() {
+        LinkedList<String> lst = new LinkedList<>();
+        for (String file : workingDir) {
+            if (!commitFiles.containsKey(file) && !stageEntries.containsKey(file)
+                    && !removalStaged.containsKey(file)) {
+                lst.add(file);
+            }
+        }
+        return lst;
+    }
+
+    /**
+     * Return the tracked files whose CWD version differs from the one in
+     * the commit or the staging area, suffixed with " (modified)" or
+     * " (deleted)"
+     */
+    LinkedList<String> modified() {
+        HashSet<String> toHash = new HashSet<>();
+        for (String file : commitFiles.keySet()) {
+            if (workingDir.contains(file) && !stageEntries.containsKey(file)) {
+                toHash.add(file);
+            }
+        }
+        for (String file : stageEntries.keySet()) {
+            if (workingDir.contains(file)) {
+                toHash.add(file);
+            }
+        }
+        Map<String, String> hashes = hashAll(toHash);
+
+        LinkedList<String> modified = new LinkedList<>();
+        for (String file : commitFiles.keySet()) {
+            if (workingDir.contains(file)) {
+                if (!stageEntries.containsKey(file)
+                        && !hashes.get(file).equals(commitFiles.get(file))) {
+                    modified.add(file + " (modified)");
+                }
+            } else if (!removalStaged.containsKey(file)) {
+                modified.add(file + " (deleted)");
+            }
+        }
+        for (String file : stageEntries.keySet()) {
+            if (workingDir.contains(file)) {
+                if (!hashes.get(file).equals(stageEntries.get(file))) {
+                    modified.add(file + " (modified)");
+                }
+            } else {
+                modified.add(file + " (deleted)");
+            }
+        }
+        return modified;
+    }
+
+    /** Return the blob hashes of FILES, computed in parallel through the
+     *  stat cache, which is saved afterwards. */
+    private Map<String, String> hashAll(HashSet<String> files) {
+        StatCache cache = StatCache.get(ctx);
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> hashes.put(file, cache.hash(file)));
+        cache.save();
+        return hashes;
+    }
+}